@@ -0,0 +1,57 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.binary;
+
+/**
+ * The ways a geometry can be stored in a binary smx file, along with the code
+ * identifying them in the file.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public enum GeometryEncoding {
+
+	NONE(0),
+	WKB(1),
+	TWKB(2);
+
+	private int code;
+
+	private GeometryEncoding(int code)
+	{
+		this.code = code;
+	}
+
+	public int getCode()
+	{
+		return code;
+	}
+
+	/**
+	 * @return the encoding with the specified code or null if there is none.
+	 */
+	public static GeometryEncoding fromCode(int code)
+	{
+		for (GeometryEncoding encoding : values()) {
+			if (encoding.code == code) {
+				return encoding;
+			}
+		}
+		return null;
+	}
+
+}
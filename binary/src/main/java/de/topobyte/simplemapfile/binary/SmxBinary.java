@@ -0,0 +1,87 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.binary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Constants and detection of the binary smx format. A binary smx file stores
+ * the same information as an XML smx file, without the overhead of XML
+ * parsing and base64 encoding. All numbers are big endian:
+ * 
+ * <pre>
+ * magic      4 bytes 'S' 'M' 'X' 'B'
+ * version    1 byte
+ * numTags    int32
+ * numTags times:
+ *   key      int32 length, UTF-8 bytes
+ *   value    int32 length, UTF-8 bytes
+ * encoding   1 byte, see {@link GeometryEncoding}
+ * geometry   int32 length, raw bytes (absent for {@link GeometryEncoding#NONE})
+ * </pre>
+ * 
+ * The magic bytes can never start a valid XML document or a gzip stream, so
+ * readers can tell the formats apart by looking at the first bytes.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxBinary
+{
+
+	public static final int VERSION = 1;
+
+	public static final int MAGIC_LENGTH = 4;
+
+	private static final byte[] MAGIC = new byte[] { 'S', 'M', 'X', 'B' };
+
+	static void writeMagic(OutputStream output) throws IOException
+	{
+		output.write(MAGIC);
+	}
+
+	/**
+	 * @return whether the remaining bytes of the buffer start with the magic
+	 *         bytes of the binary format. The position of the buffer is not
+	 *         modified.
+	 */
+	public static boolean isBinary(ByteBuffer data)
+	{
+		if (data.remaining() < MAGIC_LENGTH) {
+			return false;
+		}
+		int pos = data.position();
+		for (int i = 0; i < MAGIC_LENGTH; i++) {
+			if (data.get(pos + i) != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether the first {@code length} bytes of the array are the
+	 *         magic bytes of the binary format.
+	 */
+	public static boolean isBinary(byte[] data, int length)
+	{
+		return isBinary(ByteBuffer.wrap(data, 0, length));
+	}
+
+}
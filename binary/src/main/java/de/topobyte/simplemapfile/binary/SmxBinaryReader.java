@@ -0,0 +1,265 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.core.TagPool;
+import de.topobyte.simplemapfile.core.TwkbReader;
+
+/**
+ * A reader for the binary smx format described in {@link SmxBinary}.
+ * 
+ * WKB geometries are not decoded while reading. The raw bytes are handed to
+ * the {@link EntityFile}, which decodes them on first access. TWKB geometries
+ * are decoded using the {@link GeometryFactory} specified at construction
+ * time. Geometries that cannot be decoded result in a warning and an entity
+ * without a geometry, as with the xml format.
+ * 
+ * Instances of this class are thread-safe.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxBinaryReader
+{
+
+	final static Logger logger = LoggerFactory.getLogger(SmxBinaryReader.class);
+
+	private GeometryFactory geometryFactory;
+	private TagPool tagPool = null;
+
+	public SmxBinaryReader()
+	{
+		this(new GeometryFactory());
+	}
+
+	public SmxBinaryReader(GeometryFactory geometryFactory)
+	{
+		this.geometryFactory = geometryFactory;
+	}
+
+	public TagPool getTagPool()
+	{
+		return tagPool;
+	}
+
+	/**
+	 * Set a pool to share the strings of tag keys and values between the
+	 * entities read. By default, no pool is used.
+	 */
+	public void setTagPool(TagPool tagPool)
+	{
+		this.tagPool = tagPool;
+	}
+
+	public EntityFile read(Path file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("file too large: " + size);
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					size);
+			return read(buffer);
+		}
+	}
+
+	public EntityFile read(File file) throws IOException
+	{
+		return read(file.toPath());
+	}
+
+	/**
+	 * Read an entity from the remaining content of the specified stream. The
+	 * stream does not get closed.
+	 */
+	public EntityFile read(InputStream input) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = input.read(buffer)) >= 0) {
+			baos.write(buffer, 0, n);
+		}
+		return read(baos.toByteArray());
+	}
+
+	public EntityFile read(byte[] data) throws IOException
+	{
+		return read(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Read an entity from the remaining bytes of the specified buffer. The
+	 * position of the buffer is not modified.
+	 */
+	public EntityFile read(ByteBuffer data) throws IOException
+	{
+		return read(data, true);
+	}
+
+	/**
+	 * Read only the tags of an entity from the remaining bytes of the
+	 * specified buffer. The position of the buffer is not modified.
+	 */
+	public EntityFile readTags(ByteBuffer data) throws IOException
+	{
+		return read(data, false);
+	}
+
+	/**
+	 * @return the position within the buffer at which the geometry section
+	 *         of the record starts, i.e. the position right after the tags.
+	 */
+	static int geometryOffset(ByteBuffer data) throws IOException
+	{
+		ByteBuffer buffer = header(data);
+		try {
+			int numTags = readLength(buffer);
+			for (int i = 0; i < numTags * 2; i++) {
+				int length = readLength(buffer);
+				buffer.position(buffer.position() + length);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("unexpected end of data");
+		}
+		return buffer.position();
+	}
+
+	/**
+	 * @return a buffer positioned after the header of the record.
+	 */
+	private static ByteBuffer header(ByteBuffer data) throws IOException
+	{
+		if (!SmxBinary.isBinary(data)) {
+			throw new IOException("not a binary smx file");
+		}
+		ByteBuffer buffer = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+		buffer.position(buffer.position() + SmxBinary.MAGIC_LENGTH);
+		if (!buffer.hasRemaining()) {
+			throw new IOException("unexpected end of data");
+		}
+		int version = buffer.get() & 0xff;
+		if (version != SmxBinary.VERSION) {
+			throw new IOException("unsupported version: " + version);
+		}
+		return buffer;
+	}
+
+	private EntityFile read(ByteBuffer data, boolean readGeometry)
+			throws IOException
+	{
+		ByteBuffer buffer = header(data);
+
+		EntityFile entityFile = new EntityFile();
+		try {
+			int numTags = readLength(buffer);
+			for (int i = 0; i < numTags; i++) {
+				String key = readString(buffer);
+				String value = readString(buffer);
+				if (tagPool != null) {
+					key = tagPool.key(key);
+					value = tagPool.value(value);
+				}
+				entityFile.addTag(key, value);
+			}
+			entityFile.trimTags();
+
+			if (!readGeometry) {
+				return entityFile;
+			}
+
+			int code = buffer.get() & 0xff;
+			GeometryEncoding encoding = GeometryEncoding.fromCode(code);
+			if (encoding == null) {
+				throw new IOException("unknown geometry encoding: " + code);
+			}
+			if (encoding == GeometryEncoding.NONE) {
+				return entityFile;
+			}
+
+			byte[] bytes = new byte[readLength(buffer)];
+			buffer.get(bytes);
+			if (encoding == GeometryEncoding.WKB) {
+				entityFile.setWkb(bytes, geometryFactory);
+			} else {
+				readTwkb(entityFile, bytes);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("unexpected end of data");
+		}
+
+		return entityFile;
+	}
+
+	private void readTwkb(EntityFile entityFile, byte[] bytes)
+	{
+		TwkbReader twkbReader = new TwkbReader(geometryFactory);
+		try {
+			entityFile.setGeometry(twkbReader.read(bytes));
+		} catch (ParseException e) {
+			logger.warn("unable to read twkb, ParseException: "
+					+ e.getMessage());
+		} catch (IllegalArgumentException e) {
+			logger.warn("unable to read twkb, IllegalArgumentException: "
+					+ e.getMessage());
+		}
+	}
+
+	private static int readLength(ByteBuffer buffer) throws IOException
+	{
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IOException("invalid length: " + length);
+		}
+		return length;
+	}
+
+	private static String readString(ByteBuffer buffer) throws IOException
+	{
+		int length = readLength(buffer);
+		if (buffer.hasArray()) {
+			int offset = buffer.arrayOffset() + buffer.position();
+			buffer.position(buffer.position() + length);
+			return new String(buffer.array(), offset, length,
+					StandardCharsets.UTF_8);
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
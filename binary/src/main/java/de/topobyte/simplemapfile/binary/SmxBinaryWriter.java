@@ -0,0 +1,274 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.io.WKBWriter;
+import org.locationtech.jts.precision.GeometryPrecisionReducer;
+
+import de.topobyte.simplemapfile.core.AtomicFileBatch;
+import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.core.TwkbWriter;
+import de.topobyte.simplemapfile.core.WriteMode;
+
+/**
+ * A writer for the binary smx format described in {@link SmxBinary}.
+ * 
+ * Geometries are stored as WKB by default. If an entity still holds the raw
+ * WKB it has been read with, those bytes are written unchanged. Alternatively,
+ * geometries can be stored as TWKB with a configurable precision.
+ * 
+ * When writing to a file whose name ends with '.gz', the output gets gzip
+ * compressed. Tags with a null key or value cannot be written and are rejected
+ * with an {@link IllegalArgumentException} before anything is written.
+ * 
+ * Instances of this class are thread-safe once they have been configured.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxBinaryWriter
+{
+
+	private static final String GZIP_EXTENSION = ".gz";
+
+	private GeometryEncoding geometryEncoding = GeometryEncoding.WKB;
+	private int twkbPrecision = 7;
+
+	private WriteMode writeMode = WriteMode.DIRECT;
+
+	public GeometryEncoding getGeometryEncoding()
+	{
+		return geometryEncoding;
+	}
+
+	/**
+	 * @param geometryEncoding
+	 *            either {@link GeometryEncoding#WKB} (the default) or
+	 *            {@link GeometryEncoding#TWKB}.
+	 */
+	public void setGeometryEncoding(GeometryEncoding geometryEncoding)
+	{
+		if (geometryEncoding == GeometryEncoding.NONE) {
+			throw new IllegalArgumentException(
+					"unsupported geometry encoding: " + geometryEncoding);
+		}
+		this.geometryEncoding = geometryEncoding;
+	}
+
+	public int getTwkbPrecision()
+	{
+		return twkbPrecision;
+	}
+
+	/**
+	 * @param twkbPrecision
+	 *            the number of decimal places of x and y to keep when writing
+	 *            TWKB, between -8 and 7.
+	 */
+	public void setTwkbPrecision(int twkbPrecision)
+	{
+		if (twkbPrecision < TwkbWriter.MIN_PRECISION
+				|| twkbPrecision > TwkbWriter.MAX_PRECISION) {
+			throw new IllegalArgumentException(
+					"precision out of range: " + twkbPrecision);
+		}
+		this.twkbPrecision = twkbPrecision;
+	}
+
+	public WriteMode getWriteMode()
+	{
+		return writeMode;
+	}
+
+	/**
+	 * Set how files are written by the methods that take a file. The default
+	 * is {@link WriteMode#DIRECT}.
+	 */
+	public void setWriteMode(WriteMode writeMode)
+	{
+		this.writeMode = writeMode;
+	}
+
+	public void write(EntityFile entityFile, Path file) throws IOException
+	{
+		writeMode.write(file,
+				output -> writeFile(entityFile, output, file.toString()));
+	}
+
+	public void write(EntityFile entityFile, File file) throws IOException
+	{
+		if (writeMode != WriteMode.DIRECT) {
+			write(entityFile, file.toPath());
+			return;
+		}
+		try (OutputStream output = new FileOutputStream(file)) {
+			writeFile(entityFile, output, file.getName());
+		}
+	}
+
+	/**
+	 * Write the entity to the specified file as part of the batch. The file
+	 * appears at its destination once the batch gets committed. The configured
+	 * write mode does not apply.
+	 */
+	public void write(EntityFile entityFile, Path file, AtomicFileBatch batch)
+			throws IOException
+	{
+		batch.write(file,
+				output -> writeFile(entityFile, output, file.toString()));
+	}
+
+	private void writeFile(EntityFile entityFile, OutputStream output,
+			String filename) throws IOException
+	{
+		if (!filename.endsWith(GZIP_EXTENSION)) {
+			write(entityFile, output);
+			return;
+		}
+		try (OutputStream out = new GZIPOutputStream(output)) {
+			write(entityFile, out);
+		}
+	}
+
+	/**
+	 * Write the entity to the specified stream. The stream gets flushed but
+	 * not closed.
+	 */
+	public void write(EntityFile entityFile, OutputStream output)
+			throws IOException
+	{
+		Map<String, String> tags = entityFile.getTags();
+		checkTags(tags);
+
+		DataOutputStream data = new DataOutputStream(
+				new BufferedOutputStream(output));
+
+		writeHead(data, tags);
+
+		GeometryEncoding encoding = geometryEncoding;
+		byte[] bytes = null;
+		if (encoding == GeometryEncoding.WKB) {
+			bytes = entityFile.getWkb();
+		}
+		if (bytes == null) {
+			Geometry geometry = entityFile.getGeometry();
+			if (geometry == null) {
+				encoding = GeometryEncoding.NONE;
+			} else if (encoding == GeometryEncoding.TWKB) {
+				geometry = GeometryPrecisionReducer.reduce(geometry,
+						new PrecisionModel(Math.pow(10, twkbPrecision)));
+				bytes = new TwkbWriter(twkbPrecision).write(geometry);
+			} else {
+				bytes = new WKBWriter().write(geometry);
+			}
+		}
+
+		data.writeByte(encoding.getCode());
+		if (encoding != GeometryEncoding.NONE) {
+			data.writeInt(bytes.length);
+			data.write(bytes);
+		}
+
+		data.flush();
+	}
+
+	/**
+	 * Write a copy of a record in the binary format with its tags replaced by
+	 * the specified ones. The geometry section is copied unchanged. The stream
+	 * gets flushed but not closed.
+	 * 
+	 * @param record
+	 *            the record to copy, from its position up to its limit. The
+	 *            position of the buffer is not modified.
+	 */
+	public void writeWithTags(ByteBuffer record, Map<String, String> tags,
+			OutputStream output) throws IOException
+	{
+		int geometryOffset = SmxBinaryReader.geometryOffset(record);
+		checkTags(tags);
+
+		DataOutputStream data = new DataOutputStream(
+				new BufferedOutputStream(output));
+		writeHead(data, tags);
+
+		ByteBuffer geometry = record.duplicate();
+		geometry.position(geometryOffset);
+		if (geometry.hasArray()) {
+			data.write(geometry.array(),
+					geometry.arrayOffset() + geometry.position(),
+					geometry.remaining());
+		} else {
+			byte[] buffer = new byte[8192];
+			while (geometry.hasRemaining()) {
+				int n = Math.min(buffer.length, geometry.remaining());
+				geometry.get(buffer, 0, n);
+				data.write(buffer, 0, n);
+			}
+		}
+
+		data.flush();
+	}
+
+	private static void checkTags(Map<String, String> tags)
+	{
+		for (Map.Entry<String, String> tag : tags.entrySet()) {
+			if (tag.getKey() == null) {
+				throw new IllegalArgumentException("tag with null key");
+			}
+			if (tag.getValue() == null) {
+				throw new IllegalArgumentException(
+						"tag with null value: " + tag.getKey());
+			}
+		}
+	}
+
+	private static void writeHead(DataOutputStream data,
+			Map<String, String> tags) throws IOException
+	{
+		SmxBinary.writeMagic(data);
+		data.writeByte(SmxBinary.VERSION);
+
+		data.writeInt(tags.size());
+		for (Map.Entry<String, String> tag : tags.entrySet()) {
+			writeString(data, tag.getKey());
+			writeString(data, tag.getValue());
+		}
+	}
+
+	private static void writeString(DataOutputStream data, String value)
+			throws IOException
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+
+}
@@ -0,0 +1,114 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.bundle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Constants and detection of the smx bundle format, which stores many
+ * entities in a single file. Each entity is stored as a record in the binary
+ * smx format, the records are followed by a table of contents and a fixed size
+ * footer that points to the table. All numbers are big endian:
+ * 
+ * <pre>
+ * magic      4 bytes 'S' 'M' 'X' 'U'
+ * version    1 byte
+ * flags      1 byte, bit 0: the table contains envelopes
+ * records    binary smx records, back to back
+ * table      for each entity:
+ *   name     int32 length, UTF-8 bytes
+ *   offset   int64, position of the record within the file
+ *   length   int32, length of the record
+ *   envelope 4 times float64: minX, minY, maxX, maxY (only with flag 0)
+ * footer     int64 offset of the table, int32 number of entities, magic
+ * </pre>
+ * 
+ * Envelopes of entities without a geometry or with an empty geometry are
+ * stored as NaN values.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxBundle
+{
+
+	public static final int VERSION = 1;
+
+	public static final int MAGIC_LENGTH = 4;
+
+	static final int FLAG_ENVELOPES = 0x01;
+
+	static final int HEADER_LENGTH = MAGIC_LENGTH + 2;
+	static final int FOOTER_LENGTH = 8 + 4 + MAGIC_LENGTH;
+
+	// size of a table entry with an empty name, without and with envelope
+	static final int MIN_ENTRY_LENGTH = 4 + 8 + 4;
+	static final int ENVELOPE_LENGTH = 4 * 8;
+
+	static final byte[] MAGIC = new byte[] { 'S', 'M', 'X', 'U' };
+
+	/**
+	 * @return whether the remaining bytes of the buffer start with the magic
+	 *         bytes of the bundle format. The position of the buffer is not
+	 *         modified.
+	 */
+	public static boolean isBundle(ByteBuffer data)
+	{
+		return hasMagic(data, data.position());
+	}
+
+	/**
+	 * @return whether the specified file is a regular file that starts with
+	 *         the magic bytes of the bundle format.
+	 */
+	public static boolean isBundle(Path file) throws IOException
+	{
+		if (!Files.isRegularFile(file)) {
+			return false;
+		}
+		byte[] head = new byte[MAGIC_LENGTH];
+		int total = 0;
+		try (InputStream input = Files.newInputStream(file)) {
+			while (total < head.length) {
+				int r = input.read(head, total, head.length - total);
+				if (r < 0) {
+					return false;
+				}
+				total += r;
+			}
+		}
+		return isBundle(ByteBuffer.wrap(head));
+	}
+
+	static boolean hasMagic(ByteBuffer data, int pos)
+	{
+		if (pos < 0 || data.limit() - pos < MAGIC_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC_LENGTH; i++) {
+			if (data.get(pos + i) != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,294 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.bundle;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import de.topobyte.simplemapfile.binary.SmxBinaryReader;
+import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.core.TagPool;
+
+/**
+ * A random-access reader for the bundle format described in {@link SmxBundle}.
+ * The file gets mapped into memory and the table of contents is loaded when
+ * the reader is opened. Entities are decoded from the mapped records on
+ * request.
+ * 
+ * Instances of this class are thread-safe.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxBundleReader implements Closeable
+{
+
+	private FileChannel channel;
+	private ByteBuffer data;
+	private SmxBinaryReader binaryReader;
+
+	private String[] names;
+	private long[] offsets;
+	private int[] lengths;
+	private double[] envelopes;
+
+	private Map<String, Integer> nameToIndex = null;
+
+	public SmxBundleReader(Path file) throws IOException
+	{
+		this(file, new GeometryFactory());
+	}
+
+	public SmxBundleReader(Path file, GeometryFactory geometryFactory)
+			throws IOException
+	{
+		binaryReader = new SmxBinaryReader(geometryFactory);
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			open();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void open() throws IOException
+	{
+		long size = channel.size();
+		if (size < SmxBundle.HEADER_LENGTH + SmxBundle.FOOTER_LENGTH) {
+			throw new IOException("not a bundle file");
+		}
+		if (size <= Integer.MAX_VALUE) {
+			data = channel.map(MapMode.READ_ONLY, 0, size);
+		}
+
+		ByteBuffer header = map(0, SmxBundle.HEADER_LENGTH);
+		if (!SmxBundle.hasMagic(header, 0)) {
+			throw new IOException("not a bundle file");
+		}
+		int version = header.get(SmxBundle.MAGIC_LENGTH) & 0xff;
+		if (version != SmxBundle.VERSION) {
+			throw new IOException("unsupported version: " + version);
+		}
+		int flags = header.get(SmxBundle.MAGIC_LENGTH + 1) & 0xff;
+		boolean hasEnvelopes = (flags & SmxBundle.FLAG_ENVELOPES) != 0;
+
+		long footerOffset = size - SmxBundle.FOOTER_LENGTH;
+		ByteBuffer footer = map(footerOffset, SmxBundle.FOOTER_LENGTH);
+		long tableOffset = footer.getLong(0);
+		int numEntities = footer.getInt(8);
+		if (!SmxBundle.hasMagic(footer, 12)) {
+			throw new IOException("bundle file is truncated");
+		}
+		if (tableOffset < SmxBundle.HEADER_LENGTH || tableOffset > footerOffset
+				|| footerOffset - tableOffset > Integer.MAX_VALUE
+				|| numEntities < 0) {
+			throw new IOException("invalid table of contents");
+		}
+
+		int tableLength = (int) (footerOffset - tableOffset);
+		int entryLength = SmxBundle.MIN_ENTRY_LENGTH;
+		if (hasEnvelopes) {
+			entryLength += SmxBundle.ENVELOPE_LENGTH;
+		}
+		// check before allocating anything based on the number of entities
+		if (numEntities > tableLength / entryLength) {
+			throw new IOException("invalid number of entities: " + numEntities);
+		}
+
+		ByteBuffer table = map(tableOffset, tableLength);
+		names = new String[numEntities];
+		offsets = new long[numEntities];
+		lengths = new int[numEntities];
+		if (hasEnvelopes) {
+			envelopes = new double[numEntities * 4];
+		}
+		try {
+			for (int i = 0; i < numEntities; i++) {
+				int nameLength = table.getInt();
+				if (nameLength < 0 || nameLength > table.remaining()) {
+					throw new IOException("invalid table of contents");
+				}
+				byte[] nameBytes = new byte[nameLength];
+				table.get(nameBytes);
+				names[i] = new String(nameBytes, StandardCharsets.UTF_8);
+				offsets[i] = table.getLong();
+				lengths[i] = table.getInt();
+				if (offsets[i] < SmxBundle.HEADER_LENGTH || lengths[i] < 0
+						|| offsets[i] + lengths[i] > tableOffset) {
+					throw new IOException("invalid record position of entry "
+							+ i + ": " + offsets[i]);
+				}
+				if (hasEnvelopes) {
+					for (int k = 0; k < 4; k++) {
+						envelopes[i * 4 + k] = table.getDouble();
+					}
+				}
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("invalid table of contents");
+		}
+	}
+
+	private ByteBuffer map(long offset, int length) throws IOException
+	{
+		ByteBuffer buffer;
+		if (data != null) {
+			buffer = data.duplicate();
+			buffer.position((int) offset);
+			buffer.limit((int) offset + length);
+			buffer = buffer.slice();
+		} else {
+			buffer = channel.map(MapMode.READ_ONLY, offset, length);
+		}
+		return buffer.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+
+	/**
+	 * Set a pool to share the strings of tag keys and values between the
+	 * entities read. By default, no pool is used.
+	 */
+	public void setTagPool(TagPool tagPool)
+	{
+		binaryReader.setTagPool(tagPool);
+	}
+
+	/**
+	 * @return the number of entities in the bundle.
+	 */
+	public int size()
+	{
+		return names.length;
+	}
+
+	public String getName(int i)
+	{
+		return names[i];
+	}
+
+	/**
+	 * @return an unmodifiable view of the names of all entities.
+	 */
+	public List<String> getNames()
+	{
+		return new AbstractList<String>() {
+
+			@Override
+			public String get(int index)
+			{
+				return names[index];
+			}
+
+			@Override
+			public int size()
+			{
+				return names.length;
+			}
+
+		};
+	}
+
+	/**
+	 * @return the index of the first entity with the specified name or -1 if
+	 *         there is no such entity.
+	 */
+	public synchronized int indexOf(String name)
+	{
+		if (nameToIndex == null) {
+			nameToIndex = new HashMap<>();
+			for (int i = names.length - 1; i >= 0; i--) {
+				nameToIndex.put(names[i], i);
+			}
+		}
+		Integer index = nameToIndex.get(name);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @return whether the table of contents holds the envelopes of the
+	 *         entities.
+	 */
+	public boolean hasEnvelopes()
+	{
+		return envelopes != null;
+	}
+
+	/**
+	 * @return the envelope of the entity's geometry as stored in the table of
+	 *         contents, a null envelope if the entity does not have a
+	 *         non-empty geometry or null if the bundle does not contain
+	 *         envelopes.
+	 */
+	public Envelope getEnvelope(int i)
+	{
+		if (envelopes == null) {
+			return null;
+		}
+		double minX = envelopes[i * 4];
+		double minY = envelopes[i * 4 + 1];
+		double maxX = envelopes[i * 4 + 2];
+		double maxY = envelopes[i * 4 + 3];
+		if (Double.isNaN(minX)) {
+			return new Envelope();
+		}
+		return new Envelope(minX, maxX, minY, maxY);
+	}
+
+	/**
+	 * @return a read-only buffer holding the record of the entity in the
+	 *         binary smx format.
+	 */
+	public ByteBuffer getRecord(int i) throws IOException
+	{
+		return map(offsets[i], lengths[i]).asReadOnlyBuffer();
+	}
+
+	public EntityFile read(int i) throws IOException
+	{
+		return binaryReader.read(getRecord(i));
+	}
+
+	/**
+	 * Read only the tags of the entity.
+	 */
+	public EntityFile readTags(int i) throws IOException
+	{
+		return binaryReader.readTags(getRecord(i));
+	}
+
+}
@@ -0,0 +1,172 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.bundle;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.io.ParseException;
+
+import de.topobyte.simplemapfile.binary.SmxBinaryWriter;
+import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.core.GeometryStats;
+
+/**
+ * A writer for the bundle format described in {@link SmxBundle}. Entities are
+ * appended one by one, the table of contents is written when the writer gets
+ * closed.
+ * 
+ * Instances of this class are not thread-safe.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxBundleWriter implements Closeable
+{
+
+	private SmxBinaryWriter binaryWriter;
+	private boolean envelopes;
+
+	private DataOutputStream output;
+	private long position = 0;
+
+	private ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private ByteArrayOutputStream table = new ByteArrayOutputStream();
+	private DataOutputStream tableOutput = new DataOutputStream(table);
+	private int numEntities = 0;
+
+	/**
+	 * Create a writer that stores envelopes and encodes geometries using a
+	 * default {@link SmxBinaryWriter}.
+	 */
+	public SmxBundleWriter(Path file) throws IOException
+	{
+		this(file, new SmxBinaryWriter(), true);
+	}
+
+	/**
+	 * @param binaryWriter
+	 *            the writer to encode the individual entities with.
+	 * @param envelopes
+	 *            whether to store the envelope of each entity in the table of
+	 *            contents.
+	 */
+	public SmxBundleWriter(Path file, SmxBinaryWriter binaryWriter,
+			boolean envelopes) throws IOException
+	{
+		this(Files.newOutputStream(file), binaryWriter, envelopes);
+	}
+
+	/**
+	 * Create a writer for the specified stream, which gets closed along with
+	 * this writer.
+	 * 
+	 * @param binaryWriter
+	 *            the writer to encode the individual entities with.
+	 * @param envelopes
+	 *            whether to store the envelope of each entity in the table of
+	 *            contents.
+	 */
+	public SmxBundleWriter(OutputStream out, SmxBinaryWriter binaryWriter,
+			boolean envelopes) throws IOException
+	{
+		this.binaryWriter = binaryWriter;
+		this.envelopes = envelopes;
+		output = new DataOutputStream(new BufferedOutputStream(out));
+		output.write(SmxBundle.MAGIC);
+		output.writeByte(SmxBundle.VERSION);
+		output.writeByte(envelopes ? SmxBundle.FLAG_ENVELOPES : 0);
+		position = SmxBundle.HEADER_LENGTH;
+	}
+
+	/**
+	 * Append an entity to the bundle.
+	 * 
+	 * @param name
+	 *            the name to store the entity with, typically the name of the
+	 *            file the entity has been read from.
+	 */
+	public void add(String name, EntityFile entity) throws IOException
+	{
+		Envelope envelope = null;
+		if (envelopes) {
+			try {
+				GeometryStats stats = GeometryStats.of(entity);
+				if (stats != null) {
+					envelope = stats.getEnvelope();
+				}
+			} catch (ParseException e) {
+				throw new IOException("unable to read wkb", e);
+			}
+		}
+
+		record.reset();
+		binaryWriter.write(entity, record);
+		int length = record.size();
+		record.writeTo(output);
+
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		tableOutput.writeInt(nameBytes.length);
+		tableOutput.write(nameBytes);
+		tableOutput.writeLong(position);
+		tableOutput.writeInt(length);
+		if (envelopes) {
+			if (envelope == null || envelope.isNull()) {
+				for (int i = 0; i < 4; i++) {
+					tableOutput.writeDouble(Double.NaN);
+				}
+			} else {
+				tableOutput.writeDouble(envelope.getMinX());
+				tableOutput.writeDouble(envelope.getMinY());
+				tableOutput.writeDouble(envelope.getMaxX());
+				tableOutput.writeDouble(envelope.getMaxY());
+			}
+		}
+
+		position += length;
+		numEntities++;
+	}
+
+	/**
+	 * Write the table of contents and close the underlying file.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (output == null) {
+			return;
+		}
+		try {
+			table.writeTo(output);
+			output.writeLong(position);
+			output.writeInt(numEntities);
+			output.write(SmxBundle.MAGIC);
+		} finally {
+			output.close();
+			output = null;
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Writes files atomically: the content is written to a temporary file in the
+ * same directory, which then gets renamed to the destination. Readers (and a
+ * crash) see either the old file or the complete new one, never a truncated
+ * file. If the destination exists, its POSIX permissions are carried over to
+ * the new file.
+ * 
+ * To write many files with a single sync per directory, use an
+ * {@link AtomicFileBatch}.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class AtomicFile
+{
+
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	// .<name>.<random hex>.tmp
+	private static final Pattern TEMPORARY_NAME = Pattern
+			.compile("\\..+\\.[0-9a-f]+\\.tmp");
+
+	private static final SecureRandom random = new SecureRandom();
+
+	/**
+	 * Check whether a file is a temporary file created while writing
+	 * atomically. Such files are left behind if a process gets killed before
+	 * renaming them, and code that lists directories of smx files should skip
+	 * them.
+	 */
+	public static boolean isTemporary(Path file)
+	{
+		Path name = file.getFileName();
+		return name != null
+				&& TEMPORARY_NAME.matcher(name.toString()).matches();
+	}
+
+	/**
+	 * Produces the content of a file.
+	 */
+	public interface Content
+	{
+
+		/**
+		 * Write the content to the stream. Implementations may close the
+		 * stream, which is necessary for wrapping streams such as gzip.
+		 */
+		public void write(OutputStream output) throws IOException;
+
+	}
+
+	/**
+	 * Write the file atomically.
+	 * 
+	 * @param sync
+	 *            whether to force the file and its directory to disk before
+	 *            returning, making the write durable.
+	 */
+	public static void write(Path file, Content content, boolean sync)
+			throws IOException
+	{
+		Path tmp = writeTemporary(file, content);
+		try {
+			if (sync) {
+				force(tmp);
+			}
+			move(tmp, file);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		if (sync) {
+			syncDirectory(directory(file));
+		}
+	}
+
+	/**
+	 * Write the content to a new temporary file next to the destination file.
+	 */
+	static Path writeTemporary(Path file, Content content) throws IOException
+	{
+		Path dir = directory(file);
+		String prefix = "." + file.getFileName().toString() + ".";
+		Path tmp;
+		OutputStream output;
+		while (true) {
+			// unlike Files.createTempFile(), creating the file like this
+			// applies the process' default permissions
+			tmp = dir.resolve(prefix
+					+ Long.toHexString(random.nextLong() & Long.MAX_VALUE)
+					+ TEMPORARY_SUFFIX);
+			try {
+				output = Files.newOutputStream(tmp,
+						StandardOpenOption.CREATE_NEW,
+						StandardOpenOption.WRITE);
+				break;
+			} catch (FileAlreadyExistsException e) {
+				continue;
+			}
+		}
+		try {
+			try (OutputStream out = output) {
+				content.write(out);
+			}
+			copyPermissions(file, tmp);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		return tmp;
+	}
+
+	static void move(Path tmp, Path file) throws IOException
+	{
+		try {
+			Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	static void force(Path file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Force the entries of the directory to disk, so that files that have
+	 * been created or renamed within it survive a crash.
+	 */
+	public static void syncDirectory(Path directory) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(directory,
+				StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	static Path directory(Path file)
+	{
+		return file.toAbsolutePath().getParent();
+	}
+
+	private static void copyPermissions(Path file, Path tmp)
+			throws IOException
+	{
+		try {
+			Files.setPosixFilePermissions(tmp,
+					Files.getPosixFilePermissions(file));
+		} catch (NoSuchFileException e) {
+			// new file, keep the default permissions
+		} catch (UnsupportedOperationException e) {
+			// not a POSIX file system
+		}
+	}
+
+}
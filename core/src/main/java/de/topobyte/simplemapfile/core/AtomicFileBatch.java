@@ -0,0 +1,170 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups atomic writes of many files into a single commit. Each file is
+ * written to a temporary file next to its destination first; on
+ * {@link #commit()} all pending files are renamed to their destinations and
+ * each affected directory is synced once, instead of syncing once per file.
+ * 
+ * Files that have not been committed are invisible at their destination and
+ * get deleted on {@link #close()}. Until then, they exist as hidden temporary
+ * files in the destination directories. If the process dies before committing
+ * or closing the batch, these files are left behind and are never cleaned up
+ * automatically; {@link AtomicFile#isTemporary(Path)} identifies them, and
+ * directory listings of smx files skip them.
+ * 
+ * Committing renames the files one after another. Each file is replaced
+ * atomically, but a failure or crash during a commit can leave some of the
+ * files of a batch committed and others not. Instances are thread-safe.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class AtomicFileBatch implements Closeable
+{
+
+	private final boolean sync;
+
+	// destination -> temporary file
+	private final Map<Path, Path> pending = new LinkedHashMap<>();
+
+	/**
+	 * Create a batch whose commits are durable.
+	 */
+	public AtomicFileBatch()
+	{
+		this(true);
+	}
+
+	/**
+	 * @param sync
+	 *            whether commits force the written files and their
+	 *            directories to disk. Without syncing, the renames are still
+	 *            atomic, but files committed shortly before a crash might be
+	 *            lost.
+	 */
+	public AtomicFileBatch(boolean sync)
+	{
+		this.sync = sync;
+	}
+
+	/**
+	 * Write a file that will be moved to its destination on the next commit.
+	 * Writing the same destination again within a batch replaces the pending
+	 * content.
+	 */
+	public void write(Path file, AtomicFile.Content content)
+			throws IOException
+	{
+		Path destination = file.toAbsolutePath();
+		Path tmp = AtomicFile.writeTemporary(destination, content);
+		Path previous;
+		synchronized (this) {
+			previous = pending.put(destination, tmp);
+		}
+		if (previous != null) {
+			Files.deleteIfExists(previous);
+		}
+	}
+
+	/**
+	 * @return the number of files written since the last commit.
+	 */
+	public synchronized int getNumPending()
+	{
+		return pending.size();
+	}
+
+	/**
+	 * Move all pending files to their destinations. If syncing is enabled,
+	 * the data of each file is forced to disk before any file gets renamed,
+	 * and each affected directory is synced once afterwards.
+	 */
+	public synchronized void commit() throws IOException
+	{
+		if (pending.isEmpty()) {
+			return;
+		}
+		if (sync) {
+			for (Path tmp : pending.values()) {
+				AtomicFile.force(tmp);
+			}
+		}
+		Set<Path> directories = new LinkedHashSet<>();
+		List<Path> done = new ArrayList<>();
+		try {
+			for (Map.Entry<Path, Path> entry : pending.entrySet()) {
+				Path file = entry.getKey();
+				AtomicFile.move(entry.getValue(), file);
+				done.add(file);
+				directories.add(AtomicFile.directory(file));
+			}
+		} finally {
+			for (Path file : done) {
+				pending.remove(file);
+			}
+		}
+		if (sync) {
+			for (Path directory : directories) {
+				AtomicFile.syncDirectory(directory);
+			}
+		}
+	}
+
+	/**
+	 * Discard all files that have not been committed.
+	 */
+	public synchronized void rollback() throws IOException
+	{
+		IOException error = null;
+		for (Path tmp : pending.values()) {
+			try {
+				Files.deleteIfExists(tmp);
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+		pending.clear();
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Discard all files that have not been committed. Call {@link #commit()}
+	 * before closing to keep them.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		rollback();
+	}
+
+}
@@ -0,0 +1,258 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.core;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map of tags that stores keys and values in two parallel arrays, sorted by
+ * key. Lookups use binary search, insertions and removals shift the arrays.
+ * For the small number of tags an entity usually has, this takes a fraction of
+ * the memory of a {@link java.util.TreeMap} and iterates in the same order.
+ * 
+ * Keys must not be null. Instances are not thread-safe.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class CompactTagMap extends AbstractMap<String, String>
+{
+
+	private static final String[] EMPTY = new String[0];
+
+	private String[] keys = EMPTY;
+	private String[] values = EMPTY;
+	private int size = 0;
+	private int modCount = 0;
+
+	public CompactTagMap()
+	{
+		// empty map
+	}
+
+	public CompactTagMap(Map<String, String> tags)
+	{
+		putAll(tags);
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public String get(Object key)
+	{
+		int index = indexOf(key);
+		return index < 0 ? null : values[index];
+	}
+
+	@Override
+	public String put(String key, String value)
+	{
+		if (key == null) {
+			throw new NullPointerException("null key");
+		}
+		int index = Arrays.binarySearch(keys, 0, size, key);
+		if (index >= 0) {
+			String old = values[index];
+			values[index] = value;
+			return old;
+		}
+		insert(-(index + 1), key, value);
+		return null;
+	}
+
+	@Override
+	public String remove(Object key)
+	{
+		int index = indexOf(key);
+		if (index < 0) {
+			return null;
+		}
+		String old = values[index];
+		removeAt(index);
+		return old;
+	}
+
+	@Override
+	public void clear()
+	{
+		keys = EMPTY;
+		values = EMPTY;
+		size = 0;
+		modCount++;
+	}
+
+	/**
+	 * Release the unused capacity of the arrays.
+	 */
+	public void trimToSize()
+	{
+		if (size < keys.length) {
+			keys = size == 0 ? EMPTY : Arrays.copyOf(keys, size);
+			values = size == 0 ? EMPTY : Arrays.copyOf(values, size);
+		}
+	}
+
+	private int indexOf(Object key)
+	{
+		if (!(key instanceof String)) {
+			return -1;
+		}
+		return Arrays.binarySearch(keys, 0, size, (String) key);
+	}
+
+	private void insert(int index, String key, String value)
+	{
+		if (size == keys.length) {
+			int capacity = Math.max(4, size + (size >> 1));
+			keys = Arrays.copyOf(keys, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(values, index, values, index + 1, size - index);
+		keys[index] = key;
+		values[index] = value;
+		size++;
+		modCount++;
+	}
+
+	private void removeAt(int index)
+	{
+		int n = size - index - 1;
+		System.arraycopy(keys, index + 1, keys, index, n);
+		System.arraycopy(values, index + 1, values, index, n);
+		size--;
+		keys[size] = null;
+		values[size] = null;
+		modCount++;
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet()
+	{
+		return new EntrySet();
+	}
+
+	private class EntrySet extends AbstractSet<Map.Entry<String, String>>
+	{
+
+		@Override
+		public int size()
+		{
+			return size;
+		}
+
+		@Override
+		public void clear()
+		{
+			CompactTagMap.this.clear();
+		}
+
+		@Override
+		public Iterator<Map.Entry<String, String>> iterator()
+		{
+			return new EntryIterator();
+		}
+
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<String, String>>
+	{
+
+		private int next = 0;
+		private int last = -1;
+		private int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext()
+		{
+			return next < size;
+		}
+
+		@Override
+		public Map.Entry<String, String> next()
+		{
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (next >= size) {
+				throw new NoSuchElementException();
+			}
+			last = next++;
+			return new Entry(last);
+		}
+
+		@Override
+		public void remove()
+		{
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			removeAt(last);
+			next = last;
+			last = -1;
+			expectedModCount = modCount;
+		}
+
+	}
+
+	/**
+	 * An entry that remains readable after the map has been modified and
+	 * writes changes of its value through to the map.
+	 */
+	private class Entry extends AbstractMap.SimpleEntry<String, String>
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		Entry(int index)
+		{
+			super(keys[index], values[index]);
+		}
+
+		@Override
+		public String setValue(String value)
+		{
+			int index = indexOf(getKey());
+			if (index >= 0) {
+				values[index] = value;
+			}
+			return super.setValue(value);
+		}
+
+	}
+
+}
@@ -0,0 +1,74 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.core;
+
+import org.locationtech.jts.geom.CoordinateSequenceFactory;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.impl.CoordinateArraySequenceFactory;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+/**
+ * How the coordinates of decoded geometries are stored in memory. Pass the
+ * factory created by {@link #createGeometryFactory()} to a reader to choose
+ * the storage of the geometries it decodes.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public enum CoordinateStorage {
+
+	/**
+	 * One {@link org.locationtech.jts.geom.Coordinate} object per vertex, the
+	 * JTS default.
+	 */
+	OBJECTS(CoordinateArraySequenceFactory.instance()),
+	/**
+	 * All ordinates of a sequence in a single double array. Takes a fraction
+	 * of the memory of {@link #OBJECTS} and keeps the ordinates of a sequence
+	 * close together, at the cost of creating coordinate objects whenever
+	 * single coordinates are requested.
+	 */
+	PACKED_DOUBLE(PackedCoordinateSequenceFactory.DOUBLE_FACTORY),
+	/**
+	 * Like {@link #PACKED_DOUBLE}, but with ordinates stored as floats, which
+	 * halves the memory again but rounds coordinates to about 7 significant
+	 * digits.
+	 */
+	PACKED_FLOAT(PackedCoordinateSequenceFactory.FLOAT_FACTORY);
+
+	private CoordinateSequenceFactory factory;
+
+	private CoordinateStorage(CoordinateSequenceFactory factory)
+	{
+		this.factory = factory;
+	}
+
+	public CoordinateSequenceFactory getCoordinateSequenceFactory()
+	{
+		return factory;
+	}
+
+	/**
+	 * @return a new geometry factory that stores coordinates this way, with
+	 *         the default precision model.
+	 */
+	public GeometryFactory createGeometryFactory()
+	{
+		return new GeometryFactory(factory);
+	}
+
+}
@@ -17,38 +17,382 @@
 
 package de.topobyte.simplemapfile.core;
 
+import java.util.Collections;
 import java.util.Map;
-import java.util.TreeMap;
 
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.algorithm.locate.PointOnGeometryLocator;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * An entity consisting of tags and a geometry.
+ * 
+ * Objects derived from the geometry (its envelope, a prepared geometry and a
+ * point locator) are built on first request and cached until the geometry
+ * gets replaced. Reading the geometry and the derived objects is safe for
+ * concurrent threads, including the lazy decoding of WKB.
+ * 
+ * Entities are mutable. To share an entity between threads without copying or
+ * locking, create an immutable snapshot using {@link #freeze()}.
+ * 
  * @author Sebastian Kuerten (sebastian@topobyte.de)
  */
 public class EntityFile
 {
 
-	private Map<String, String> tags = new TreeMap<>();
-	private Geometry geometry = null;
+	final static Logger logger = LoggerFactory.getLogger(EntityFile.class);
 
+	private final CompactTagMap tags;
+	private final Map<String, String> tagsView;
+	private final boolean frozen;
+
+	private volatile Geometry geometry = null;
+	private volatile byte[] wkb = null;
+	private volatile GeometryFactory geometryFactory = null;
+
+	// derived from the geometry, guarded by this for writing
+	private volatile Envelope envelope = null;
+	private volatile PreparedGeometry preparedGeometry = null;
+	private volatile PointOnGeometryLocator pointLocator = null;
+	// whether decoding or scanning the WKB failed, to report it only once
+	private volatile boolean decodeFailed = false;
+	private volatile boolean scanFailed = false;
+
+	public EntityFile()
+	{
+		tags = new CompactTagMap();
+		tagsView = tags;
+		frozen = false;
+	}
+
+	/**
+	 * Create a frozen copy of the specified entity.
+	 */
+	private EntityFile(EntityFile entity)
+	{
+		synchronized (entity) {
+			tags = new CompactTagMap(entity.tags);
+			tags.trimToSize();
+			tagsView = Collections.unmodifiableMap(tags);
+			frozen = true;
+
+			geometryFactory = entity.geometryFactory;
+			geometry = entity.geometry;
+			wkb = entity.wkb == null ? null : entity.wkb.clone();
+			envelope = entity.envelope;
+			preparedGeometry = entity.preparedGeometry;
+			pointLocator = entity.pointLocator;
+			decodeFailed = entity.decodeFailed;
+			scanFailed = entity.scanFailed;
+		}
+	}
+
+	/**
+	 * Create an immutable snapshot of this entity. Its tags and geometry
+	 * cannot be changed, and all of its state is safely published, so that
+	 * it can be shared between threads without further synchronization. Lazy
+	 * decoding of the geometry and building of cached objects remain
+	 * thread-safe.
+	 * 
+	 * The snapshot gets its own copy of the WKB, but shares the geometry with
+	 * this entity, which must not be modified afterwards.
+	 * 
+	 * @return the snapshot, or this entity if it is frozen already.
+	 */
+	public EntityFile freeze()
+	{
+		if (frozen) {
+			return this;
+		}
+		return new EntityFile(this);
+	}
+
+	/**
+	 * @return whether this entity is an immutable snapshot created by
+	 *         {@link #freeze()}.
+	 */
+	public boolean isFrozen()
+	{
+		return frozen;
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             if this entity is frozen.
+	 */
 	public void addTag(String key, String value)
 	{
+		checkModifiable();
 		tags.put(key, value);
 	}
 
+	/**
+	 * @return a view of the tags, sorted by key. The view is modifiable
+	 *         unless this entity is frozen.
+	 */
 	public Map<String, String> getTags()
 	{
-		return tags;
+		return tagsView;
 	}
 
+	/**
+	 * Release memory that has been reserved for adding more tags. Useful for
+	 * entities kept in memory for a long time.
+	 */
+	public void trimTags()
+	{
+		if (!frozen) {
+			tags.trimToSize();
+		}
+	}
+
+	/**
+	 * Get the geometry of this entity. If the geometry has been specified as
+	 * WKB using {@link #setWkb(byte[])}, it gets decoded on the first call of
+	 * this method.
+	 * 
+	 * @return the geometry or null if this entity does not have a geometry or
+	 *         if its WKB cannot be decoded, in which case a warning is logged.
+	 */
 	public Geometry getGeometry()
 	{
-		return geometry;
+		Geometry geometry = this.geometry;
+		if (geometry != null) {
+			return geometry;
+		}
+		synchronized (this) {
+			if (this.geometry == null && wkb != null && !decodeFailed) {
+				this.geometry = decode(wkb, geometryFactory);
+				decodeFailed = this.geometry == null;
+			}
+			return this.geometry;
+		}
 	}
 
-	public void setGeometry(Geometry geometry)
+	/**
+	 * @throws UnsupportedOperationException
+	 *             if this entity is frozen.
+	 */
+	public synchronized void setGeometry(Geometry geometry)
 	{
+		checkModifiable();
 		this.geometry = geometry;
+		this.wkb = null;
+		this.geometryFactory = null;
+		invalidate();
+	}
+
+	/**
+	 * Set the geometry of this entity as raw WKB. The bytes do not get decoded
+	 * until {@link #getGeometry()} is called.
+	 */
+	public void setWkb(byte[] wkb)
+	{
+		setWkb(wkb, null);
+	}
+
+	/**
+	 * Set the geometry of this entity as raw WKB, to be decoded using the
+	 * specified factory once {@link #getGeometry()} is called.
+	 * 
+	 * @param geometryFactory
+	 *            the factory to create the geometry with or null to use a
+	 *            default factory.
+	 * @throws UnsupportedOperationException
+	 *             if this entity is frozen.
+	 */
+	public synchronized void setWkb(byte[] wkb,
+			GeometryFactory geometryFactory)
+	{
+		checkModifiable();
+		this.geometryFactory = geometryFactory;
+		this.wkb = wkb;
+		this.geometry = null;
+		invalidate();
+	}
+
+	/**
+	 * @return the WKB that the geometry of this entity has been specified with
+	 *         or null if the geometry has been set as a {@link Geometry}. For
+	 *         frozen entities, a copy is returned.
+	 */
+	public byte[] getWkb()
+	{
+		byte[] wkb = this.wkb;
+		if (frozen && wkb != null) {
+			return wkb.clone();
+		}
+		return wkb;
+	}
+
+	/**
+	 * @return whether the geometry is available as a decoded {@link Geometry}
+	 *         already.
+	 */
+	public boolean isGeometryDecoded()
+	{
+		return geometry != null;
+	}
+
+	/**
+	 * Get the envelope of the geometry. If the geometry has not been decoded
+	 * yet, the envelope is determined by scanning the WKB instead of decoding
+	 * it. The returned envelope is cached and must not be modified.
+	 * 
+	 * @return the envelope or null if this entity does not have a geometry or
+	 *         if its WKB cannot be read, in which case a warning is logged.
+	 */
+	public Envelope getEnvelope()
+	{
+		Envelope envelope = this.envelope;
+		if (envelope != null) {
+			return envelope;
+		}
+		synchronized (this) {
+			if (this.envelope == null && !scanFailed) {
+				this.envelope = computeEnvelope();
+			}
+			return this.envelope;
+		}
+	}
+
+	/**
+	 * Get a prepared version of the geometry, which speeds up repeated
+	 * predicates such as intersects or contains against it. It is built on
+	 * first use and can be used by concurrent threads.
+	 * 
+	 * @return the prepared geometry or null if this entity does not have a
+	 *         geometry.
+	 */
+	public PreparedGeometry getPreparedGeometry()
+	{
+		PreparedGeometry prepared = this.preparedGeometry;
+		if (prepared != null) {
+			return prepared;
+		}
+		synchronized (this) {
+			if (this.preparedGeometry == null) {
+				Geometry geometry = getGeometry();
+				if (geometry != null) {
+					this.preparedGeometry = PreparedGeometryFactory
+							.prepare(geometry);
+				}
+			}
+			return this.preparedGeometry;
+		}
+	}
+
+	/**
+	 * Get an indexed locator for testing points against the geometry in
+	 * logarithmic time. It is built on first use and can be used by concurrent
+	 * threads.
+	 * 
+	 * @return the locator or null if this entity does not have a geometry.
+	 * @throws IllegalArgumentException
+	 *             if the geometry is not polygonal.
+	 */
+	public PointOnGeometryLocator getPointLocator()
+	{
+		PointOnGeometryLocator locator = this.pointLocator;
+		if (locator != null) {
+			return locator;
+		}
+		synchronized (this) {
+			if (this.pointLocator == null) {
+				Geometry geometry = getGeometry();
+				if (geometry != null) {
+					this.pointLocator = new IndexedPointInAreaLocator(
+							geometry);
+				}
+			}
+			return this.pointLocator;
+		}
+	}
+
+	/**
+	 * Determine the location of a point with respect to the geometry, which
+	 * must be polygonal. Points outside of the envelope are rejected without
+	 * building the point locator. If this entity does not have a geometry or
+	 * its WKB cannot be decoded, every point is exterior.
+	 * 
+	 * @return one of {@link Location#INTERIOR}, {@link Location#BOUNDARY} and
+	 *         {@link Location#EXTERIOR}.
+	 * @throws IllegalArgumentException
+	 *             if the geometry is not polygonal.
+	 */
+	public int locate(Coordinate coordinate)
+	{
+		Envelope envelope = getEnvelope();
+		if (envelope == null || !envelope.covers(coordinate.x, coordinate.y)) {
+			return Location.EXTERIOR;
+		}
+		// the envelope may be known even if the WKB cannot be decoded
+		PointOnGeometryLocator locator = getPointLocator();
+		if (locator == null) {
+			return Location.EXTERIOR;
+		}
+		return locator.locate(coordinate);
+	}
+
+	private Envelope computeEnvelope()
+	{
+		Geometry geometry = this.geometry;
+		if (geometry != null) {
+			return geometry.getEnvelopeInternal();
+		}
+		if (wkb == null) {
+			return null;
+		}
+		try {
+			return WkbScanner.scan(wkb).getEnvelope();
+		} catch (ParseException e) {
+			logger.warn("unable to read wkb, ParseException: "
+					+ e.getMessage());
+			scanFailed = true;
+			return null;
+		}
+	}
+
+	private void checkModifiable()
+	{
+		if (frozen) {
+			throw new UnsupportedOperationException("entity is frozen");
+		}
+	}
+
+	private void invalidate()
+	{
+		envelope = null;
+		preparedGeometry = null;
+		pointLocator = null;
+		decodeFailed = false;
+		scanFailed = false;
+	}
+
+	private static Geometry decode(byte[] wkb, GeometryFactory geometryFactory)
+	{
+		WKBReader wkbReader = geometryFactory == null ? new WKBReader()
+				: new WKBReader(geometryFactory);
+		try {
+			return wkbReader.read(wkb);
+		} catch (ParseException e) {
+			logger.warn("unable to read wkb, ParseException: "
+					+ e.getMessage());
+		} catch (IllegalArgumentException e) {
+			logger.warn("unable to read wkb, IllegalArgumentException: "
+					+ e.getMessage());
+		}
+		return null;
 	}
 
 }
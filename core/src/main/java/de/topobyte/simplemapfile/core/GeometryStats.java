@@ -0,0 +1,75 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.core;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+
+/**
+ * The bounding box and number of vertices of a geometry.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class GeometryStats
+{
+
+	/**
+	 * Determine the statistics of the entity's geometry. If the entity holds
+	 * raw WKB, the bytes are scanned without decoding the geometry.
+	 * 
+	 * @return the statistics or null if the entity does not have a geometry.
+	 */
+	public static GeometryStats of(EntityFile entity) throws ParseException
+	{
+		byte[] wkb = entity.getWkb();
+		if (wkb != null) {
+			return WkbScanner.scan(wkb);
+		}
+		Geometry geometry = entity.getGeometry();
+		if (geometry == null) {
+			return null;
+		}
+		return new GeometryStats(geometry.getEnvelopeInternal(),
+				geometry.getNumPoints());
+	}
+
+	private Envelope envelope;
+	private int numVertices;
+
+	public GeometryStats(Envelope envelope, int numVertices)
+	{
+		this.envelope = envelope;
+		this.numVertices = numVertices;
+	}
+
+	/**
+	 * @return the bounding box of all vertices. This is a null envelope for
+	 *         empty geometries.
+	 */
+	public Envelope getEnvelope()
+	{
+		return envelope;
+	}
+
+	public int getNumVertices()
+	{
+		return numVertices;
+	}
+
+}
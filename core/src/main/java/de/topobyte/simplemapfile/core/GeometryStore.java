@@ -0,0 +1,361 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.InStream;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+
+/**
+ * A store that keeps large numbers of geometries outside of the Java heap.
+ * Geometries are stored as WKB in direct byte buffers, or in buffers mapped
+ * from a file, and get decoded on each access. Only a compact table of
+ * offsets and envelopes stays on the heap, so that the stored geometries do
+ * not add to the work of the garbage collector.
+ * 
+ * Each geometry gets an id, assigned consecutively starting with 0. The
+ * envelope of each geometry is available without decoding it, which allows
+ * filtering candidates for point lookups cheaply.
+ * 
+ * Geometries are stored in a single output dimension, 2D by default. Raw WKB
+ * is stored unchanged if it is plain WKB of at most that dimension, and
+ * otherwise decoded and encoded again, so that all stored geometries can be
+ * decoded with the same reader.
+ * 
+ * Geometries can be added by one thread at a time. Once all geometries have
+ * been added, reading from the store is safe for concurrent threads.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class GeometryStore implements Closeable
+{
+
+	/**
+	 * The default size of the buffers that geometries are stored in.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	private final int chunkSize;
+	private final FileChannel channel;
+	private final GeometryFactory geometryFactory;
+
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+	private ByteBuffer current = null;
+	private long fileSize = 0;
+	private long numBytes = 0;
+	private int outputDimension = 2;
+
+	private int size = 0;
+	private int[] chunkIndexes = new int[0];
+	private int[] offsets = new int[0];
+	private int[] lengths = new int[0];
+	// minX, minY, maxX, maxY for each geometry, NaN for empty geometries
+	private double[] envelopes = new double[0];
+
+	/**
+	 * Create a store backed by direct byte buffers.
+	 */
+	public GeometryStore()
+	{
+		this(new GeometryFactory());
+	}
+
+	/**
+	 * Create a store backed by direct byte buffers that decodes geometries
+	 * using the specified factory.
+	 */
+	public GeometryStore(GeometryFactory geometryFactory)
+	{
+		this(geometryFactory, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param chunkSize
+	 *            the size of the direct buffers to allocate. Geometries larger
+	 *            than this get a buffer of their own.
+	 */
+	public GeometryStore(GeometryFactory geometryFactory, int chunkSize)
+	{
+		this.geometryFactory = geometryFactory;
+		this.chunkSize = chunkSize;
+		channel = null;
+	}
+
+	/**
+	 * Create a store backed by the specified file, which gets created or
+	 * truncated. The file is mapped into memory, so that the operating system
+	 * can page out geometries that are not in use.
+	 */
+	public GeometryStore(Path file, GeometryFactory geometryFactory)
+			throws IOException
+	{
+		this.geometryFactory = geometryFactory;
+		this.chunkSize = DEFAULT_CHUNK_SIZE;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Release the file backing this store, if any. Direct buffers are released
+	 * once the store is no longer referenced.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	public int getOutputDimension()
+	{
+		return outputDimension;
+	}
+
+	/**
+	 * @param outputDimension
+	 *            2 to drop Z ordinates or 3 to keep them for geometries that
+	 *            have them.
+	 */
+	public void setOutputDimension(int outputDimension)
+	{
+		if (outputDimension != 2 && outputDimension != 3) {
+			throw new IllegalArgumentException(
+					"output dimension must be 2 or 3: " + outputDimension);
+		}
+		this.outputDimension = outputDimension;
+	}
+
+	/**
+	 * @return the number of geometries in the store.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes used by the stored geometries.
+	 */
+	public long getNumBytes()
+	{
+		return numBytes;
+	}
+
+	/**
+	 * Add the geometry of an entity. If the entity holds raw WKB, it is added
+	 * like using {@link #addWkb(byte[])}.
+	 * 
+	 * @return the id of the geometry or -1 if the entity does not have a
+	 *         geometry.
+	 */
+	public int add(EntityFile entity) throws IOException
+	{
+		byte[] wkb = entity.getWkb();
+		if (wkb != null) {
+			return addWkb(wkb);
+		}
+		Geometry geometry = entity.getGeometry();
+		if (geometry == null) {
+			return -1;
+		}
+		return add(geometry);
+	}
+
+	/**
+	 * Add a geometry, which gets stored as WKB of the output dimension.
+	 * 
+	 * @return the id of the geometry.
+	 */
+	public int add(Geometry geometry) throws IOException
+	{
+		byte[] wkb = new WKBWriter(outputDimension).write(geometry);
+		return add(wkb, geometry.getEnvelopeInternal());
+	}
+
+	/**
+	 * Add a geometry given as WKB. Plain WKB of at most the output dimension
+	 * is stored as it is, with the envelope determined by scanning the bytes
+	 * instead of decoding the geometry. Other WKB (such as ISO type codes, M
+	 * ordinates or Z ordinates beyond the output dimension) gets decoded and
+	 * added like using {@link #add(Geometry)}.
+	 * 
+	 * @return the id of the geometry.
+	 * @throws IOException
+	 *             if the WKB is malformed.
+	 */
+	public int addWkb(byte[] wkb) throws IOException
+	{
+		try {
+			// scanning checks the structure, which the reader does not fully
+			Envelope envelope = WkbScanner.scan(wkb).getEnvelope();
+			if (WkbScanner.isPlainType(wkb)
+					&& WkbScanner.getDimension(wkb) <= outputDimension) {
+				return add(wkb, envelope);
+			}
+			return add(new WKBReader(geometryFactory).read(wkb));
+		} catch (ParseException | IllegalArgumentException e) {
+			throw new IOException("unable to read wkb: " + e.getMessage(), e);
+		}
+	}
+
+	private int add(byte[] wkb, Envelope envelope) throws IOException
+	{
+		if (current == null || current.remaining() < wkb.length) {
+			current = allocate(Math.max(chunkSize, wkb.length));
+			chunks.add(current);
+		}
+
+		if (size == offsets.length) {
+			int capacity = Math.max(16, size + (size >> 1));
+			chunkIndexes = Arrays.copyOf(chunkIndexes, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			envelopes = Arrays.copyOf(envelopes, capacity * 4);
+		}
+
+		int id = size;
+		chunkIndexes[id] = chunks.size() - 1;
+		offsets[id] = current.position();
+		lengths[id] = wkb.length;
+		if (envelope.isNull()) {
+			Arrays.fill(envelopes, id * 4, id * 4 + 4, Double.NaN);
+		} else {
+			envelopes[id * 4] = envelope.getMinX();
+			envelopes[id * 4 + 1] = envelope.getMinY();
+			envelopes[id * 4 + 2] = envelope.getMaxX();
+			envelopes[id * 4 + 3] = envelope.getMaxY();
+		}
+		current.put(wkb);
+
+		numBytes += wkb.length;
+		size++;
+		return id;
+	}
+
+	private ByteBuffer allocate(int length) throws IOException
+	{
+		if (channel == null) {
+			return ByteBuffer.allocateDirect(length);
+		}
+		ByteBuffer buffer = channel.map(MapMode.READ_WRITE, fileSize, length);
+		fileSize += length;
+		return buffer;
+	}
+
+	/**
+	 * @return the envelope of the geometry with the specified id. This is a
+	 *         null envelope for empty geometries.
+	 */
+	public Envelope getEnvelope(int id)
+	{
+		check(id);
+		if (Double.isNaN(envelopes[id * 4])) {
+			return new Envelope();
+		}
+		return new Envelope(envelopes[id * 4], envelopes[id * 4 + 2],
+				envelopes[id * 4 + 1], envelopes[id * 4 + 3]);
+	}
+
+	/**
+	 * Check whether the envelope of the geometry with the specified id covers
+	 * a point, without creating any objects.
+	 */
+	public boolean envelopeCovers(int id, double x, double y)
+	{
+		check(id);
+		int i = id * 4;
+		// comparisons with NaN are false for empty geometries
+		return x >= envelopes[i] && y >= envelopes[i + 1]
+				&& x <= envelopes[i + 2] && y <= envelopes[i + 3];
+	}
+
+	/**
+	 * @return a read-only view of the WKB of the geometry with the specified
+	 *         id.
+	 */
+	public ByteBuffer getWkb(int id)
+	{
+		check(id);
+		ByteBuffer buffer = chunks.get(chunkIndexes[id]).asReadOnlyBuffer();
+		buffer.limit(offsets[id] + lengths[id]);
+		buffer.position(offsets[id]);
+		return buffer.slice();
+	}
+
+	/**
+	 * Decode the geometry with the specified id.
+	 * 
+	 * @throws IOException
+	 *             if the stored WKB cannot be decoded.
+	 */
+	public Geometry get(int id) throws IOException
+	{
+		WKBReader reader = new WKBReader(geometryFactory);
+		try {
+			return reader.read(new BufferInStream(getWkb(id)));
+		} catch (ParseException e) {
+			throw new IOException("unable to read wkb: " + e.getMessage(), e);
+		}
+	}
+
+	private void check(int id)
+	{
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("invalid id: " + id);
+		}
+	}
+
+	private static class BufferInStream implements InStream
+	{
+
+		private ByteBuffer buffer;
+
+		BufferInStream(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void read(byte[] buf) throws IOException
+		{
+			if (buffer.remaining() < buf.length) {
+				throw new IOException("unexpected end of data");
+			}
+			buffer.get(buf);
+		}
+
+	}
+
+}
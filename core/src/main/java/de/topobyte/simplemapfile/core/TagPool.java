@@ -0,0 +1,101 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A pool of canonical string instances for tag keys and values. Readers that
+ * are given a pool replace the strings they read with the pooled instances, so
+ * that entities share one instance of frequently repeated strings such as
+ * "boundary" or "admin_level" instead of each holding its own copy.
+ * 
+ * Values longer than the configured maximum length are not pooled, as these
+ * are usually unique (names, descriptions) and would only grow the pool.
+ * Instances are thread-safe and can be shared between readers.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class TagPool
+{
+
+	private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+	private final int maxValueLength;
+
+	/**
+	 * Create a pool that pools values of up to 32 characters.
+	 */
+	public TagPool()
+	{
+		this(32);
+	}
+
+	/**
+	 * @param maxValueLength
+	 *            the maximum length of values to pool. Keys are always pooled.
+	 */
+	public TagPool(int maxValueLength)
+	{
+		this.maxValueLength = maxValueLength;
+	}
+
+	public int getMaxValueLength()
+	{
+		return maxValueLength;
+	}
+
+	/**
+	 * @return the pooled instance equal to the key.
+	 */
+	public String key(String key)
+	{
+		return intern(key);
+	}
+
+	/**
+	 * @return the pooled instance equal to the value or the value itself if
+	 *         it is too long to be pooled.
+	 */
+	public String value(String value)
+	{
+		if (value == null || value.length() > maxValueLength) {
+			return value;
+		}
+		return intern(value);
+	}
+
+	/**
+	 * @return the number of strings in the pool.
+	 */
+	public int size()
+	{
+		return strings.size();
+	}
+
+	public void clear()
+	{
+		strings.clear();
+	}
+
+	private String intern(String string)
+	{
+		String pooled = strings.putIfAbsent(string, string);
+		return pooled == null ? string : pooled;
+	}
+
+}
@@ -0,0 +1,282 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.core;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateSequenceFactory;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.ParseException;
+
+/**
+ * Decodes geometries from Tiny WKB (TWKB, version 0.23). All optional parts of
+ * the format are supported: bounding boxes, sizes and id lists are skipped, Z
+ * ordinates are kept and M ordinates are dropped.
+ * 
+ * Instances of this class are not thread-safe.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class TwkbReader
+{
+
+	private GeometryFactory factory;
+	private CoordinateSequenceFactory csFactory;
+
+	private byte[] buf;
+	private int pos;
+	private int end;
+
+	private int dimension;
+	private boolean hasZ;
+	private double scale;
+	private double zScale;
+	private long[] last = new long[4];
+
+	public TwkbReader()
+	{
+		this(new GeometryFactory());
+	}
+
+	public TwkbReader(GeometryFactory factory)
+	{
+		this.factory = factory;
+		csFactory = factory.getCoordinateSequenceFactory();
+	}
+
+	public Geometry read(byte[] bytes) throws ParseException
+	{
+		return read(bytes, 0, bytes.length);
+	}
+
+	public Geometry read(byte[] bytes, int offset, int length)
+			throws ParseException
+	{
+		buf = bytes;
+		pos = offset;
+		end = offset + length;
+		try {
+			return readGeometry();
+		} finally {
+			buf = null;
+		}
+	}
+
+	private Geometry readGeometry() throws ParseException
+	{
+		int header = readByte();
+		int type = header & 0x0F;
+		int precision = unZigZag(header >> 4);
+		int metadata = readByte();
+
+		hasZ = false;
+		boolean hasM = false;
+		int zPrecision = 0;
+		if ((metadata & TwkbWriter.FLAG_EXTENDED) != 0) {
+			int extended = readByte();
+			hasZ = (extended & 0x01) != 0;
+			hasM = (extended & 0x02) != 0;
+			zPrecision = (extended >> 2) & 0x07;
+		}
+		dimension = 2 + (hasZ ? 1 : 0) + (hasM ? 1 : 0);
+		scale = Math.pow(10, precision);
+		zScale = Math.pow(10, zPrecision);
+
+		if ((metadata & TwkbWriter.FLAG_SIZE) != 0) {
+			readUnsigned();
+		}
+		if ((metadata & TwkbWriter.FLAG_EMPTY) != 0) {
+			return createEmpty(type);
+		}
+		if ((metadata & TwkbWriter.FLAG_BBOX) != 0) {
+			for (int i = 0; i < dimension * 2; i++) {
+				readUnsigned();
+			}
+		}
+
+		for (int i = 0; i < last.length; i++) {
+			last[i] = 0;
+		}
+		boolean hasIdList = (metadata & TwkbWriter.FLAG_IDLIST) != 0;
+
+		switch (type) {
+		case TwkbWriter.TYPE_POINT:
+			return factory.createPoint(readCoordinates(1));
+		case TwkbWriter.TYPE_LINESTRING:
+			return factory.createLineString(readCoordinates(readCount()));
+		case TwkbWriter.TYPE_POLYGON:
+			return readPolygon();
+		case TwkbWriter.TYPE_MULTIPOINT: {
+			int n = readCount();
+			skipIdList(hasIdList, n);
+			Point[] points = new Point[n];
+			for (int i = 0; i < n; i++) {
+				points[i] = factory.createPoint(readCoordinates(1));
+			}
+			return factory.createMultiPoint(points);
+		}
+		case TwkbWriter.TYPE_MULTILINESTRING: {
+			int n = readCount();
+			skipIdList(hasIdList, n);
+			LineString[] lines = new LineString[n];
+			for (int i = 0; i < n; i++) {
+				lines[i] = factory
+						.createLineString(readCoordinates(readCount()));
+			}
+			return factory.createMultiLineString(lines);
+		}
+		case TwkbWriter.TYPE_MULTIPOLYGON: {
+			int n = readCount();
+			skipIdList(hasIdList, n);
+			Polygon[] polygons = new Polygon[n];
+			for (int i = 0; i < n; i++) {
+				polygons[i] = readPolygon();
+			}
+			return factory.createMultiPolygon(polygons);
+		}
+		case TwkbWriter.TYPE_GEOMETRYCOLLECTION: {
+			int n = readCount();
+			skipIdList(hasIdList, n);
+			Geometry[] geometries = new Geometry[n];
+			for (int i = 0; i < n; i++) {
+				geometries[i] = readGeometry();
+			}
+			return factory.createGeometryCollection(geometries);
+		}
+		default:
+			throw new ParseException("Unknown TWKB type " + type);
+		}
+	}
+
+	private Polygon readPolygon() throws ParseException
+	{
+		int numRings = readCount();
+		if (numRings == 0) {
+			return factory.createPolygon((LinearRing) null, null);
+		}
+		LinearRing shell = factory.createLinearRing(readCoordinates(readCount()));
+		LinearRing[] holes = new LinearRing[numRings - 1];
+		for (int i = 0; i < holes.length; i++) {
+			holes[i] = factory.createLinearRing(readCoordinates(readCount()));
+		}
+		return factory.createPolygon(shell, holes);
+	}
+
+	private Geometry createEmpty(int type) throws ParseException
+	{
+		switch (type) {
+		case TwkbWriter.TYPE_POINT:
+			return factory.createPoint((CoordinateSequence) null);
+		case TwkbWriter.TYPE_LINESTRING:
+			return factory.createLineString((CoordinateSequence) null);
+		case TwkbWriter.TYPE_POLYGON:
+			return factory.createPolygon((LinearRing) null, null);
+		case TwkbWriter.TYPE_MULTIPOINT:
+			return factory.createMultiPoint((Point[]) null);
+		case TwkbWriter.TYPE_MULTILINESTRING:
+			return factory.createMultiLineString(null);
+		case TwkbWriter.TYPE_MULTIPOLYGON:
+			return factory.createMultiPolygon(null);
+		case TwkbWriter.TYPE_GEOMETRYCOLLECTION:
+			return factory.createGeometryCollection(null);
+		default:
+			throw new ParseException("Unknown TWKB type " + type);
+		}
+	}
+
+	private CoordinateSequence readCoordinates(int n) throws ParseException
+	{
+		CoordinateSequence cs = csFactory.create(n, hasZ ? 3 : 2);
+		for (int i = 0; i < n; i++) {
+			cs.setOrdinate(i, CoordinateSequence.X, readOrdinate(0) / scale);
+			cs.setOrdinate(i, CoordinateSequence.Y, readOrdinate(1) / scale);
+			if (hasZ) {
+				cs.setOrdinate(i, CoordinateSequence.Z,
+						readOrdinate(2) / zScale);
+			}
+			for (int k = hasZ ? 3 : 2; k < dimension; k++) {
+				readOrdinate(k);
+			}
+		}
+		return cs;
+	}
+
+	private long readOrdinate(int index) throws ParseException
+	{
+		long value = last[index] + readSigned();
+		last[index] = value;
+		return value;
+	}
+
+	private void skipIdList(boolean hasIdList, int n) throws ParseException
+	{
+		if (!hasIdList) {
+			return;
+		}
+		for (int i = 0; i < n; i++) {
+			readUnsigned();
+		}
+	}
+
+	private int readCount() throws ParseException
+	{
+		long count = readUnsigned();
+		// each coordinate or part needs at least one byte
+		if (count > end - pos) {
+			throw new ParseException("Invalid count: " + count);
+		}
+		return (int) count;
+	}
+
+	private long readSigned() throws ParseException
+	{
+		long value = readUnsigned();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private long readUnsigned() throws ParseException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new ParseException("Malformed varint in TWKB");
+	}
+
+	private int readByte() throws ParseException
+	{
+		if (pos >= end) {
+			throw new ParseException("Unexpected EOF parsing TWKB");
+		}
+		return buf[pos++] & 0xff;
+	}
+
+	private static int unZigZag(int value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+}
@@ -0,0 +1,296 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.OutStream;
+
+/**
+ * Encodes geometries as Tiny WKB (TWKB, version 0.23). Coordinates are scaled
+ * by a power of ten, rounded to integers and stored as zig-zag encoded varints
+ * of their difference to the previous coordinate.
+ * 
+ * Neither bounding boxes, sizes nor id lists are written. Coordinates are
+ * rounded arithmetically, which may render polygons invalid. To avoid this,
+ * reduce the geometry to a matching precision model before encoding.
+ * 
+ * Instances of this class are not thread-safe.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class TwkbWriter
+{
+
+	static final int TYPE_POINT = 1;
+	static final int TYPE_LINESTRING = 2;
+	static final int TYPE_POLYGON = 3;
+	static final int TYPE_MULTIPOINT = 4;
+	static final int TYPE_MULTILINESTRING = 5;
+	static final int TYPE_MULTIPOLYGON = 6;
+	static final int TYPE_GEOMETRYCOLLECTION = 7;
+
+	static final int FLAG_BBOX = 0x01;
+	static final int FLAG_SIZE = 0x02;
+	static final int FLAG_IDLIST = 0x04;
+	static final int FLAG_EXTENDED = 0x08;
+	static final int FLAG_EMPTY = 0x10;
+
+	public static final int MIN_PRECISION = -8;
+	public static final int MAX_PRECISION = 7;
+
+	private int precision;
+	private int outputDimension;
+	private int zPrecision;
+
+	private double scale;
+	private double zScale;
+
+	private byte[] buffer = new byte[256];
+	private int length;
+
+	private long[] last = new long[3];
+
+	/**
+	 * Create a writer for 2D output.
+	 * 
+	 * @param precision
+	 *            the number of decimal places to keep for x and y, between -8
+	 *            and 7.
+	 */
+	public TwkbWriter(int precision)
+	{
+		this(precision, 2, 0);
+	}
+
+	/**
+	 * @param precision
+	 *            the number of decimal places to keep for x and y, between -8
+	 *            and 7.
+	 * @param outputDimension
+	 *            2 to drop Z ordinates or 3 to keep them for geometries that
+	 *            have them.
+	 * @param zPrecision
+	 *            the number of decimal places to keep for z, between 0 and 7.
+	 */
+	public TwkbWriter(int precision, int outputDimension, int zPrecision)
+	{
+		if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+			throw new IllegalArgumentException(
+					"precision out of range: " + precision);
+		}
+		if (outputDimension != 2 && outputDimension != 3) {
+			throw new IllegalArgumentException(
+					"output dimension must be 2 or 3: " + outputDimension);
+		}
+		if (zPrecision < 0 || zPrecision > MAX_PRECISION) {
+			throw new IllegalArgumentException(
+					"z precision out of range: " + zPrecision);
+		}
+		this.precision = precision;
+		this.outputDimension = outputDimension;
+		this.zPrecision = zPrecision;
+		scale = Math.pow(10, precision);
+		zScale = Math.pow(10, zPrecision);
+	}
+
+	public byte[] write(Geometry geometry)
+	{
+		length = 0;
+		writeGeometry(geometry);
+		return Arrays.copyOf(buffer, length);
+	}
+
+	public void write(Geometry geometry, OutStream os) throws IOException
+	{
+		length = 0;
+		writeGeometry(geometry);
+		os.write(buffer, length);
+	}
+
+	private void writeGeometry(Geometry geometry)
+	{
+		int type = type(geometry);
+		boolean hasZ = outputDimension == 3 && hasZ(geometry);
+		int metadata = 0;
+		if (hasZ) {
+			metadata |= FLAG_EXTENDED;
+		}
+		if (geometry.isEmpty()) {
+			metadata |= FLAG_EMPTY;
+		}
+		writeByte((zigZag(precision) << 4) | type);
+		writeByte(metadata);
+		if (hasZ) {
+			writeByte(0x01 | (zPrecision << 2));
+		}
+		if (geometry.isEmpty()) {
+			return;
+		}
+
+		Arrays.fill(last, 0);
+		int dimension = hasZ ? 3 : 2;
+		switch (type) {
+		case TYPE_POINT:
+			writeCoordinates(((Point) geometry).getCoordinateSequence(),
+					dimension);
+			break;
+		case TYPE_LINESTRING:
+			writeLineString((LineString) geometry, dimension);
+			break;
+		case TYPE_POLYGON:
+			writePolygon((Polygon) geometry, dimension);
+			break;
+		case TYPE_MULTIPOINT:
+			writeUnsigned(geometry.getNumGeometries());
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				Point point = (Point) geometry.getGeometryN(i);
+				if (point.isEmpty()) {
+					throw new IllegalArgumentException(
+							"empty points within multipoints are not supported by TWKB");
+				}
+				writeCoordinates(point.getCoordinateSequence(), dimension);
+			}
+			break;
+		case TYPE_MULTILINESTRING:
+			writeUnsigned(geometry.getNumGeometries());
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				writeLineString((LineString) geometry.getGeometryN(i),
+						dimension);
+			}
+			break;
+		case TYPE_MULTIPOLYGON:
+			writeUnsigned(geometry.getNumGeometries());
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				writePolygon((Polygon) geometry.getGeometryN(i), dimension);
+			}
+			break;
+		case TYPE_GEOMETRYCOLLECTION:
+			writeUnsigned(geometry.getNumGeometries());
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				writeGeometry(geometry.getGeometryN(i));
+			}
+			break;
+		}
+	}
+
+	private void writeLineString(LineString line, int dimension)
+	{
+		CoordinateSequence cs = line.getCoordinateSequence();
+		writeUnsigned(cs.size());
+		writeCoordinates(cs, dimension);
+	}
+
+	private void writePolygon(Polygon polygon, int dimension)
+	{
+		if (polygon.isEmpty()) {
+			writeUnsigned(0);
+			return;
+		}
+		int numHoles = polygon.getNumInteriorRing();
+		writeUnsigned(numHoles + 1);
+		writeLineString(polygon.getExteriorRing(), dimension);
+		for (int i = 0; i < numHoles; i++) {
+			writeLineString(polygon.getInteriorRingN(i), dimension);
+		}
+	}
+
+	private void writeCoordinates(CoordinateSequence cs, int dimension)
+	{
+		for (int i = 0; i < cs.size(); i++) {
+			writeOrdinate(Math.round(cs.getX(i) * scale), 0);
+			writeOrdinate(Math.round(cs.getY(i) * scale), 1);
+			if (dimension == 3) {
+				double z = cs.getOrdinate(i, CoordinateSequence.Z);
+				writeOrdinate(Double.isNaN(z) ? 0 : Math.round(z * zScale), 2);
+			}
+		}
+	}
+
+	private void writeOrdinate(long value, int index)
+	{
+		writeSigned(value - last[index]);
+		last[index] = value;
+	}
+
+	private static int type(Geometry geometry)
+	{
+		if (geometry instanceof Point) {
+			return TYPE_POINT;
+		} else if (geometry instanceof LineString) {
+			return TYPE_LINESTRING;
+		} else if (geometry instanceof Polygon) {
+			return TYPE_POLYGON;
+		} else if (geometry instanceof MultiPoint) {
+			return TYPE_MULTIPOINT;
+		} else if (geometry instanceof MultiLineString) {
+			return TYPE_MULTILINESTRING;
+		} else if (geometry instanceof MultiPolygon) {
+			return TYPE_MULTIPOLYGON;
+		} else if (geometry instanceof GeometryCollection) {
+			return TYPE_GEOMETRYCOLLECTION;
+		}
+		throw new IllegalArgumentException(
+				"Unsupported geometry type: " + geometry.getGeometryType());
+	}
+
+	private static boolean hasZ(Geometry geometry)
+	{
+		Coordinate coordinate = geometry.getCoordinate();
+		return coordinate != null && !Double.isNaN(coordinate.z);
+	}
+
+	static int zigZag(int value)
+	{
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private void writeSigned(long value)
+	{
+		writeUnsigned((value << 1) ^ (value >> 63));
+	}
+
+	private void writeUnsigned(long value)
+	{
+		while ((value & ~0x7FL) != 0) {
+			writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		writeByte((int) value);
+	}
+
+	private void writeByte(int b)
+	{
+		if (length == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		buffer[length++] = (byte) b;
+	}
+
+}
@@ -0,0 +1,240 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.core;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.io.ByteOrderValues;
+import org.locationtech.jts.io.ParseException;
+
+/**
+ * Walks through the coordinates of a WKB encoded geometry and collects its
+ * bounding box and number of vertices without building a Geometry.
+ * 
+ * Both byte orders are supported as well as the extended (EWKB) and ISO flavors
+ * of specifying SRIDs and Z or M ordinates. Empty points (encoded as NaN
+ * coordinates) do not contribute to the result.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class WkbScanner
+{
+
+	private static final int TYPE_POINT = 1;
+	private static final int TYPE_LINESTRING = 2;
+	private static final int TYPE_POLYGON = 3;
+	private static final int TYPE_MULTIPOINT = 4;
+	private static final int TYPE_MULTILINESTRING = 5;
+	private static final int TYPE_MULTIPOLYGON = 6;
+	private static final int TYPE_GEOMETRYCOLLECTION = 7;
+
+	private static final int FLAG_Z = 0x80000000;
+	private static final int FLAG_M = 0x40000000;
+	private static final int FLAG_SRID = 0x20000000;
+
+	public static GeometryStats scan(byte[] wkb) throws ParseException
+	{
+		WkbScanner scanner = new WkbScanner(wkb);
+		scanner.readGeometry();
+		return new GeometryStats(scanner.envelope, scanner.numVertices);
+	}
+
+	/**
+	 * @return the byte order of the outermost geometry as one of the
+	 *         constants of {@link ByteOrderValues}.
+	 */
+	public static int getByteOrder(byte[] wkb) throws ParseException
+	{
+		WkbScanner scanner = new WkbScanner(wkb);
+		scanner.readByteOrder();
+		return scanner.littleEndian ? ByteOrderValues.LITTLE_ENDIAN
+				: ByteOrderValues.BIG_ENDIAN;
+	}
+
+	/**
+	 * @return the number of ordinates per coordinate of the outermost geometry,
+	 *         including M ordinates.
+	 */
+	public static int getDimension(byte[] wkb) throws ParseException
+	{
+		WkbScanner scanner = new WkbScanner(wkb);
+		scanner.readByteOrder();
+		return scanner.readDimension(scanner.readInt());
+	}
+
+	/**
+	 * @return whether the type of the outermost geometry is encoded as plain
+	 *         OGC WKB or as EWKB without an M flag, which are the only
+	 *         variants that JTS writes. ISO type codes (such as 1001 for a
+	 *         point with Z) are not considered plain.
+	 */
+	public static boolean isPlainType(byte[] wkb) throws ParseException
+	{
+		WkbScanner scanner = new WkbScanner(wkb);
+		scanner.readByteOrder();
+		int typeInt = scanner.readInt();
+		return (typeInt & FLAG_M) == 0 && (typeInt & 0x0fffffff) / 1000 == 0;
+	}
+
+	private byte[] buf;
+	private int pos = 0;
+	private boolean littleEndian;
+
+	private Envelope envelope = new Envelope();
+	private int numVertices = 0;
+
+	private WkbScanner(byte[] buf)
+	{
+		this.buf = buf;
+	}
+
+	private void readGeometry() throws ParseException
+	{
+		readByteOrder();
+
+		int typeInt = readInt();
+		int dimension = readDimension(typeInt);
+		if ((typeInt & FLAG_SRID) != 0) {
+			readInt();
+		}
+
+		int type = (typeInt & 0x0fffffff) % 1000;
+
+		switch (type) {
+		case TYPE_POINT:
+			readPoints(1, dimension);
+			break;
+		case TYPE_LINESTRING:
+			readPoints(readCount(), dimension);
+			break;
+		case TYPE_POLYGON:
+			int numRings = readCount();
+			for (int i = 0; i < numRings; i++) {
+				readPoints(readCount(), dimension);
+			}
+			break;
+		case TYPE_MULTIPOINT:
+		case TYPE_MULTILINESTRING:
+		case TYPE_MULTIPOLYGON:
+		case TYPE_GEOMETRYCOLLECTION:
+			int numGeometries = readCount();
+			for (int i = 0; i < numGeometries; i++) {
+				readGeometry();
+			}
+			break;
+		default:
+			throw new ParseException("Unknown WKB type " + type);
+		}
+	}
+
+	private void readByteOrder() throws ParseException
+	{
+		ensure(1);
+		byte byteOrder = buf[pos++];
+		if (byteOrder == 0) {
+			littleEndian = false;
+		} else if (byteOrder == 1) {
+			littleEndian = true;
+		} else {
+			throw new ParseException("Unknown geometry byte order: " + byteOrder);
+		}
+	}
+
+	private int readDimension(int typeInt) throws ParseException
+	{
+		int dimension = 2;
+		if ((typeInt & FLAG_Z) != 0) {
+			dimension++;
+		}
+		if ((typeInt & FLAG_M) != 0) {
+			dimension++;
+		}
+
+		int code = typeInt & 0x0fffffff;
+		int iso = code / 1000;
+		if (iso == 1 || iso == 2) {
+			dimension++;
+		} else if (iso == 3) {
+			dimension += 2;
+		} else if (iso != 0) {
+			throw new ParseException("Unknown WKB type " + code);
+		}
+		return dimension;
+	}
+
+	private void readPoints(int n, int dimension) throws ParseException
+	{
+		int stride = dimension * 8;
+		ensure((long) n * stride);
+		for (int i = 0; i < n; i++) {
+			double x = readDouble(pos);
+			double y = readDouble(pos + 8);
+			pos += stride;
+			if (Double.isNaN(x) && Double.isNaN(y)) {
+				continue;
+			}
+			envelope.expandToInclude(x, y);
+			numVertices++;
+		}
+	}
+
+	private int readCount() throws ParseException
+	{
+		int count = readInt();
+		if (count < 0) {
+			throw new ParseException("Invalid count: " + count);
+		}
+		return count;
+	}
+
+	private int readInt() throws ParseException
+	{
+		ensure(4);
+		int b0 = buf[pos] & 0xff;
+		int b1 = buf[pos + 1] & 0xff;
+		int b2 = buf[pos + 2] & 0xff;
+		int b3 = buf[pos + 3] & 0xff;
+		pos += 4;
+		if (littleEndian) {
+			return (b3 << 24) | (b2 << 16) | (b1 << 8) | b0;
+		}
+		return (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+	}
+
+	private double readDouble(int offset)
+	{
+		long bits = 0;
+		if (littleEndian) {
+			for (int i = 7; i >= 0; i--) {
+				bits = (bits << 8) | (buf[offset + i] & 0xff);
+			}
+		} else {
+			for (int i = 0; i < 8; i++) {
+				bits = (bits << 8) | (buf[offset + i] & 0xff);
+			}
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	private void ensure(long n) throws ParseException
+	{
+		if (pos + n > buf.length) {
+			throw new ParseException("Unexpected EOF parsing WKB");
+		}
+	}
+
+}
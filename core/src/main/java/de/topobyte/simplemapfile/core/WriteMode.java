@@ -0,0 +1,70 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * How writers create the files they write.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public enum WriteMode {
+
+	/**
+	 * Write straight into the destination file. Fastest, but an interrupted
+	 * write leaves a truncated file behind.
+	 */
+	DIRECT,
+	/**
+	 * Write to a temporary file and rename it to the destination, see
+	 * {@link AtomicFile}.
+	 */
+	ATOMIC,
+	/**
+	 * Like {@link #ATOMIC}, and additionally sync the file and its directory
+	 * before returning. Use an {@link AtomicFileBatch} to amortize the cost of
+	 * syncing over many files.
+	 */
+	ATOMIC_SYNC;
+
+	/**
+	 * Write a file in this mode.
+	 */
+	public void write(Path file, AtomicFile.Content content) throws IOException
+	{
+		switch (this) {
+		default:
+		case DIRECT:
+			try (OutputStream output = Files.newOutputStream(file)) {
+				content.write(output);
+			}
+			break;
+		case ATOMIC:
+			AtomicFile.write(file, content, false);
+			break;
+		case ATOMIC_SYNC:
+			AtomicFile.write(file, content, true);
+			break;
+		}
+	}
+
+}
@@ -0,0 +1,213 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+import org.locationtech.jts.io.WKTReader;
+
+/**
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class TestGeometryStore
+{
+
+	// POINT Z (1 2 3) with an ISO type code
+	private static final String ISO_POINT_Z = "00000003E9"
+			+ "3FF0000000000000" + "4000000000000000" + "4008000000000000";
+	// POINT M (1 2 3)
+	private static final String ISO_POINT_M = "00000007D1"
+			+ "3FF0000000000000" + "4000000000000000" + "4008000000000000";
+	// POINT EMPTY, encoded with NaN coordinates
+	private static final String POINT_EMPTY = "0000000001"
+			+ "7FF8000000000000" + "7FF8000000000000";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private GeometryFactory factory = new GeometryFactory();
+
+	@Test
+	public void testChunkBoundary() throws IOException, ParseException
+	{
+		// a 2D point takes 21 bytes, so that two of them fill a chunk
+		GeometryStore store = new GeometryStore(factory, 42);
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i, store.add(geometry("POINT(" + i + " 1)")));
+		}
+		assertEquals(5, store.size());
+		assertEquals(5 * 21, store.getNumBytes());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(21, store.getWkb(i).remaining());
+			assertExact(geometry("POINT(" + i + " 1)"), store.get(i));
+		}
+	}
+
+	@Test
+	public void testLargeGeometry() throws IOException, ParseException
+	{
+		GeometryStore store = new GeometryStore(factory, 64);
+		Geometry small = geometry("POINT(1 2)");
+		Geometry large = circle(100);
+		assertEquals(0, store.add(small));
+		assertEquals(1, store.add(large));
+		assertEquals(2, store.add(small));
+		assertExact(small, store.get(0));
+		assertExact(large, store.get(1));
+		assertExact(small, store.get(2));
+		assertEquals(large.getEnvelopeInternal(), store.getEnvelope(1));
+	}
+
+	@Test
+	public void testMappedFile() throws IOException, ParseException
+	{
+		Path file = folder.newFile("store").toPath();
+		Geometry polygon = circle(20);
+		try (GeometryStore store = new GeometryStore(file, factory)) {
+			for (int i = 0; i < 100; i++) {
+				store.add(polygon);
+				store.addWkb(new WKBWriter().write(geometry("POINT(3 4)")));
+			}
+			assertEquals(200, store.size());
+			for (int i = 0; i < 200; i += 2) {
+				assertExact(polygon, store.get(i));
+				assertExact(geometry("POINT(3 4)"), store.get(i + 1));
+			}
+			assertTrue(store.envelopeCovers(1, 3, 4));
+			assertFalse(store.envelopeCovers(1, 3, 5));
+		}
+		assertTrue(Files.size(file) >= GeometryStore.DEFAULT_CHUNK_SIZE);
+	}
+
+	@Test
+	public void testEmptyGeometries() throws IOException, ParseException
+	{
+		GeometryStore store = new GeometryStore();
+		int polygon = store.add(geometry("POLYGON EMPTY"));
+		int collection = store.add(geometry("GEOMETRYCOLLECTION EMPTY"));
+		int point = store.addWkb(WKBReader.hexToBytes(POINT_EMPTY));
+		for (int id : new int[] { polygon, collection, point }) {
+			Envelope envelope = store.getEnvelope(id);
+			assertTrue(envelope.isNull());
+			assertFalse(store.envelopeCovers(id, 0, 0));
+		}
+		assertTrue(store.get(polygon).isEmpty());
+		assertTrue(store.get(collection).isEmpty());
+	}
+
+	@Test
+	public void testOutputDimension() throws IOException, ParseException
+	{
+		Geometry point = geometry("POINT Z(1 2 3)");
+		byte[] wkb3d = new WKBWriter(3).write(point);
+		byte[] wkb2d = new WKBWriter().write(point);
+
+		GeometryStore store = new GeometryStore();
+		EntityFile entity = new EntityFile();
+		entity.setWkb(wkb3d);
+		assertBytes(wkb2d, store.getWkb(store.add(point)));
+		assertBytes(wkb2d, store.getWkb(store.add(entity)));
+		assertBytes(wkb2d, store.getWkb(store.addWkb(wkb3d)));
+		assertBytes(wkb2d,
+				store.getWkb(store.addWkb(WKBReader.hexToBytes(ISO_POINT_Z))));
+
+		store = new GeometryStore();
+		store.setOutputDimension(3);
+		assertBytes(wkb3d, store.getWkb(store.add(point)));
+		assertBytes(wkb3d, store.getWkb(store.add(entity)));
+		assertBytes(wkb3d, store.getWkb(store.addWkb(wkb3d)));
+		assertBytes(wkb3d,
+				store.getWkb(store.addWkb(WKBReader.hexToBytes(ISO_POINT_Z))));
+		assertBytes(wkb2d, store.getWkb(store.addWkb(wkb2d)));
+		assertEquals(3, store.get(0).getCoordinate().getZ(), 0);
+	}
+
+	@Test
+	public void testNonPlainWkb() throws IOException, ParseException
+	{
+		GeometryStore store = new GeometryStore();
+		int id = store.addWkb(WKBReader.hexToBytes(ISO_POINT_M));
+		assertBytes(new WKBWriter().write(geometry("POINT(1 2)")),
+				store.getWkb(id));
+		assertExact(geometry("POINT(1 2)"), store.get(id));
+	}
+
+	@Test
+	public void testMalformedWkb()
+	{
+		GeometryStore store = new GeometryStore();
+		for (String hex : new String[] { "", "00", "0000000001",
+				"00000003E93FF0", "00000000FF" }) {
+			try {
+				store.addWkb(WKBReader.hexToBytes(hex));
+				fail("accepted " + hex);
+			} catch (IOException e) {
+				// expected
+			}
+		}
+		assertEquals(0, store.size());
+	}
+
+	private Geometry geometry(String wkt) throws ParseException
+	{
+		return new WKTReader(factory).read(wkt);
+	}
+
+	private Geometry circle(int numPoints)
+	{
+		Coordinate[] coordinates = new Coordinate[numPoints + 1];
+		for (int i = 0; i < numPoints; i++) {
+			double angle = 2 * Math.PI * i / numPoints;
+			coordinates[i] = new Coordinate(Math.cos(angle), Math.sin(angle));
+		}
+		coordinates[numPoints] = coordinates[0];
+		return factory.createPolygon(coordinates);
+	}
+
+	private static void assertExact(Geometry expected, Geometry actual)
+	{
+		assertTrue(actual.toString(), expected.equalsExact(actual));
+	}
+
+	private static void assertBytes(byte[] expected, ByteBuffer actual)
+	{
+		byte[] bytes = new byte[actual.remaining()];
+		actual.get(bytes);
+		assertArrayEquals(expected, bytes);
+	}
+
+}
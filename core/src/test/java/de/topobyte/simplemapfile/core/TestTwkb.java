@@ -0,0 +1,182 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKTReader;
+
+/**
+ * Golden vectors for the TWKB codec. The vectors for LINESTRING(1 1,5 5) and
+ * the multipoint with an id list are taken from the PostGIS documentation of
+ * ST_AsTWKB. The others are encoded by hand following the TWKB specification
+ * and the options of ST_AsTWKB (precision, Z and M precision, sizes and
+ * bounding boxes).
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class TestTwkb
+{
+
+	@Test
+	public void testLineString() throws ParseException
+	{
+		// ST_AsTWKB('LINESTRING(1 1,5 5)')
+		check("02000202020808", "LINESTRING(1 1, 5 5)", 0);
+	}
+
+	@Test
+	public void testIdList() throws ParseException
+	{
+		// ST_AsTWKB(array_agg(geom), array_agg(gid)) for POINT(0 0) with id 1
+		// and POINT(1 1) with id 2
+		read("040402020400000202", "MULTIPOINT((0 0), (1 1))");
+	}
+
+	@Test
+	public void testBoundingBox() throws ParseException
+	{
+		// ST_AsTWKB('LINESTRING(1 1,5 5)', 0, 0, 0, false, true)
+		read("0201020802080202020808", "LINESTRING(1 1, 5 5)");
+	}
+
+	@Test
+	public void testSize() throws ParseException
+	{
+		// ST_AsTWKB('LINESTRING(1 1,5 5)', 0, 0, 0, true, false)
+		read("0202050202020808", "LINESTRING(1 1, 5 5)");
+	}
+
+	@Test
+	public void testSizeAndBoundingBox() throws ParseException
+	{
+		// ST_AsTWKB('LINESTRING(1 1,5 5)', 0, 0, 0, true, true), the size
+		// includes the bounding box
+		read("020309020802080202020808", "LINESTRING(1 1, 5 5)");
+	}
+
+	@Test
+	public void testZ() throws ParseException
+	{
+		// ST_AsTWKB('LINESTRING Z (1 2 3,4 5 6)', 0, 1)
+		byte[] bytes = WKBReader.hexToBytes("0208050202043c06063c");
+		Geometry geometry = new TwkbReader().read(bytes);
+		assertCoordinates(geometry, new Coordinate(1, 2, 3),
+				new Coordinate(4, 5, 6));
+		assertArrayEquals(bytes, new TwkbWriter(0, 3, 1).write(geometry));
+	}
+
+	@Test
+	public void testM() throws ParseException
+	{
+		// ST_AsTWKB('LINESTRING M (1 2 3,4 5 6)'), M gets dropped
+		read("02080202020406060606", "LINESTRING(1 2, 4 5)");
+	}
+
+	@Test
+	public void testZM() throws ParseException
+	{
+		// ST_AsTWKB('POINT ZM (1 2 3 4)'), M gets dropped
+		Geometry geometry = new TwkbReader()
+				.read(WKBReader.hexToBytes("01080302040608"));
+		assertCoordinates(geometry, new Coordinate(1, 2, 3));
+	}
+
+	@Test
+	public void testNegativePrecision() throws ParseException
+	{
+		// ST_AsTWKB('POINT(1234 5678)', -2)
+		byte[] bytes = WKBReader.hexToBytes("31001872");
+		assertEquals(geometry("POINT(1200 5700)"),
+				new TwkbReader().read(bytes));
+		assertArrayEquals(bytes,
+				new TwkbWriter(-2).write(geometry("POINT(1234 5678)")));
+	}
+
+	@Test
+	public void testPositivePrecision() throws ParseException
+	{
+		// ST_AsTWKB('POINT(1.5 -2.25)', 2)
+		check("4100ac02c103", "POINT(1.5 -2.25)", 2);
+	}
+
+	@Test
+	public void testPolygon() throws ParseException
+	{
+		// ST_AsTWKB('POLYGON((0 0,2 0,2 2,0 2,0 0))')
+		check("0300010500000400000403000003",
+				"POLYGON((0 0, 2 0, 2 2, 0 2, 0 0))", 0);
+	}
+
+	@Test
+	public void testGeometryCollection() throws ParseException
+	{
+		// ST_AsTWKB('GEOMETRYCOLLECTION(POINT(1 2),LINESTRING(0 0,1 1))')
+		check("0700020100020402000200000202",
+				"GEOMETRYCOLLECTION(POINT(1 2), LINESTRING(0 0, 1 1))", 0);
+	}
+
+	@Test
+	public void testEmpty() throws ParseException
+	{
+		// ST_AsTWKB('POINT EMPTY')
+		check("0110", "POINT EMPTY", 0);
+	}
+
+	/**
+	 * Check that the bytes decode to the geometry and that encoding the
+	 * geometry gives the bytes again.
+	 */
+	private static void check(String hex, String wkt, int precision)
+			throws ParseException
+	{
+		byte[] bytes = WKBReader.hexToBytes(hex);
+		Geometry geometry = geometry(wkt);
+		assertTrue(geometry.equalsExact(new TwkbReader().read(bytes)));
+		assertArrayEquals(bytes, new TwkbWriter(precision).write(geometry));
+	}
+
+	private static void read(String hex, String wkt) throws ParseException
+	{
+		Geometry geometry = new TwkbReader().read(WKBReader.hexToBytes(hex));
+		assertTrue(geometry(wkt).equalsExact(geometry));
+	}
+
+	private static void assertCoordinates(Geometry geometry,
+			Coordinate... coordinates)
+	{
+		Coordinate[] actual = geometry.getCoordinates();
+		assertEquals(coordinates.length, actual.length);
+		for (int i = 0; i < coordinates.length; i++) {
+			assertTrue(coordinates[i].equals3D(actual[i]));
+		}
+	}
+
+	private static Geometry geometry(String wkt) throws ParseException
+	{
+		return new WKTReader().read(wkt);
+	}
+
+}
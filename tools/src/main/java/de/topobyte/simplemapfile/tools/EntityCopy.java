@@ -18,24 +18,36 @@
 package de.topobyte.simplemapfile.tools;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.io.ByteOrderValues;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
+import de.topobyte.melon.paths.PathUtil;
+import de.topobyte.simplemapfile.binary.GeometryEncoding;
+import de.topobyte.simplemapfile.binary.SmxBinaryWriter;
+import de.topobyte.simplemapfile.core.AtomicFile;
+import de.topobyte.simplemapfile.core.AtomicFileBatch;
 import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.xml.GeometryType;
+import de.topobyte.simplemapfile.xml.ReadMode;
 import de.topobyte.simplemapfile.xml.SmxFileReader;
-import de.topobyte.simplemapfile.xml.SmxFileWriter;
+import de.topobyte.simplemapfile.xml.SmxWriter;
+import de.topobyte.utilities.apache.commons.cli.OptionHelper;
 
 /**
  * @author Sebastian Kuerten (sebastian@topobyte.de)
@@ -47,12 +59,27 @@ public class EntityCopy
 
 	private static final String HELP_MESSAGE = "EntityCopy [args] input output";
 
+	private static final String OPTION_DIMENSION = "dimension";
+	private static final String OPTION_LITTLE_ENDIAN = "little-endian";
+	private static final String OPTION_PRECISION = "precision";
+	private static final String OPTION_TWKB = "twkb";
+	private static final String OPTION_BINARY = "binary";
+
 	/**
-	 * Read a smx-file and write it to a new file.
+	 * Read a smx-file and write it to a new file, optionally changing the way
+	 * the geometry is encoded. If the input is a directory, all files within
+	 * it are copied to the output directory.
 	 */
 	public static void main(String args[])
 	{
+		// @formatter:off
 		Options options = new Options();
+		OptionHelper.addL(options, OPTION_DIMENSION, true, false, "2|3", "the number of dimensions to write (default: 2)");
+		OptionHelper.addL(options, OPTION_LITTLE_ENDIAN, false, false, "write WKB in little endian byte order");
+		OptionHelper.addL(options, OPTION_PRECISION, true, false, "scale", "snap coordinates to a fixed precision model with this scale, i.e. 1e7 for 7 decimal places");
+		OptionHelper.addL(options, OPTION_TWKB, true, false, "decimals", "write the geometry as TWKB keeping this number of decimal places");
+		OptionHelper.addL(options, OPTION_BINARY, false, false, "write the binary smx format (only --twkb applies)");
+		// @formatter:on
 
 		CommandLine line = null;
 		try {
@@ -79,18 +106,78 @@ public class EntityCopy
 			filenames.add(filename);
 		}
 
+		SmxWriter writer = new SmxWriter();
+		SmxBinaryWriter binaryWriter = new SmxBinaryWriter();
+		try {
+			if (line.hasOption(OPTION_DIMENSION)) {
+				writer.setOutputDimension(Integer
+						.parseInt(line.getOptionValue(OPTION_DIMENSION)));
+			}
+			if (line.hasOption(OPTION_PRECISION)) {
+				double scale = Double
+						.parseDouble(line.getOptionValue(OPTION_PRECISION));
+				writer.setPrecisionModel(new PrecisionModel(scale));
+			}
+			if (line.hasOption(OPTION_TWKB)) {
+				writer.setGeometryType(GeometryType.TWKB_BASE64);
+				writer.setTwkbPrecision(
+						Integer.parseInt(line.getOptionValue(OPTION_TWKB)));
+				binaryWriter.setGeometryEncoding(GeometryEncoding.TWKB);
+				binaryWriter.setTwkbPrecision(writer.getTwkbPrecision());
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println("invalid argument: " + e.getMessage());
+			new HelpFormatter().printHelp(HELP_MESSAGE, options);
+			System.exit(1);
+		}
+		if (line.hasOption(OPTION_LITTLE_ENDIAN)) {
+			writer.setByteOrder(ByteOrderValues.LITTLE_ENDIAN);
+		}
+
+		boolean binary = line.hasOption(OPTION_BINARY);
+		Path input = Paths.get(filenames.get(0));
+		Path output = Paths.get(filenames.get(1));
+
+		if (!Files.isDirectory(input)) {
+			copy(input, output, writer, binaryWriter, binary, null);
+			return;
+		}
+
+		// copy all files of the directory, committing them at once
+		try (AtomicFileBatch batch = new AtomicFileBatch()) {
+			Files.createDirectories(output);
+			for (Path file : PathUtil.list(input)) {
+				if (Files.isRegularFile(file)
+						&& !AtomicFile.isTemporary(file)) {
+					copy(file, output.resolve(file.getFileName()), writer,
+							binaryWriter, binary, batch);
+				}
+			}
+			batch.commit();
+		} catch (IOException e) {
+			logger.error("unable to process directory: " + input, e);
+		}
+	}
+
+	/**
+	 * Copy a single file. Geometries are read as raw WKB and only get decoded
+	 * if the configured output encoding differs from the input.
+	 */
+	private static void copy(Path input, Path output, SmxWriter writer,
+			SmxBinaryWriter binaryWriter, boolean binary,
+			AtomicFileBatch batch)
+	{
 		// read input file
 
-		String filenameInput = filenames.get(0);
 		EntityFile entityFile = null;
 		try {
-			entityFile = SmxFileReader.read(filenameInput);
+			entityFile = SmxFileReader.read(input, ReadMode.LAZY_GEOMETRY);
 		} catch (IOException e) {
-			logger.debug("unable to load entity: " + filenameInput);
+			logger.debug("unable to load entity: " + input);
 		} catch (ParserConfigurationException e) {
-			logger.debug("unable to load entity: " + filenameInput);
+			logger.debug("unable to load entity: " + input);
 		} catch (SAXException e) {
-			logger.debug("unable to load entity: " + filenameInput);
+			logger.debug("unable to load entity: " + input);
 		}
 		if (entityFile == null) {
 			return;
@@ -98,16 +185,22 @@ public class EntityCopy
 
 		// write output file
 
-		String filenameOutput = filenames.get(1);
-
 		try {
-			SmxFileWriter.write(entityFile, filenameOutput);
+			if (binary) {
+				if (batch == null) {
+					binaryWriter.write(entityFile, output);
+				} else {
+					binaryWriter.write(entityFile, output, batch);
+				}
+			} else {
+				if (batch == null) {
+					writer.write(entityFile, output);
+				} else {
+					writer.write(entityFile, output, batch);
+				}
+			}
 		} catch (IOException e) {
-			logger.debug("unable to store entity: " + filenameInput);
-		} catch (TransformerException e) {
-			logger.debug("unable to store entity: " + filenameInput);
-		} catch (ParserConfigurationException e) {
-			logger.debug("unable to store entity: " + filenameInput);
+			logger.debug("unable to store entity: " + input);
 		}
 	}
 
@@ -27,6 +27,7 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -41,17 +42,22 @@ import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
 import de.topobyte.melon.paths.PathUtil;
+import de.topobyte.simplemapfile.bundle.SmxBundle;
+import de.topobyte.simplemapfile.bundle.SmxBundleReader;
+import de.topobyte.simplemapfile.core.AtomicFile;
 import de.topobyte.simplemapfile.core.EntityFile;
 import de.topobyte.simplemapfile.index.SmxIndex;
 import de.topobyte.simplemapfile.index.SmxIndexEntry;
 import de.topobyte.simplemapfile.utils.PolygonLoader;
 import de.topobyte.simplemapfile.xml.SmxFileReader;
+import de.topobyte.simplemapfile.xml.SmxFileWriter;
 import de.topobyte.utilities.apache.commons.cli.OptionHelper;
 
 /**
  * This tool selects from a set of files those geometries that are being covered
  * by a denoted boundary b to a certain degree and copies those matching
- * geometry files to an output directory.
+ * geometry files to an output directory. Matching entities of bundle files are
+ * written to the output directory as separate files.
  * 
  * @author Sebastian Kuerten (sebastian@topobyte.de)
  */
@@ -171,7 +177,10 @@ public class GeometrySelector
 		logger.info("iterating files");
 		for (String filename : inputFiles) {
 			Path file = Paths.get(filename);
-			if (Files.isRegularFile(file)) {
+			if (SmxBundle.isBundle(file)) {
+				handleBundle(boundary, threshold, file, outputDirectory);
+			} else if (Files.isRegularFile(file)
+					&& !AtomicFile.isTemporary(file)) {
 				handle(boundary, threshold, file, outputDirectory);
 			} else if (Files.isDirectory(file)) {
 				Path index = file
@@ -208,6 +217,9 @@ public class GeometrySelector
 				if (!indexWorked) {
 					// no index, just iterate files
 					for (Path child : PathUtil.list(file)) {
+						if (AtomicFile.isTemporary(child)) {
+							continue;
+						}
 						handle(boundary, threshold, child, outputDirectory);
 					}
 				}
@@ -235,10 +247,49 @@ public class GeometrySelector
 		}
 	}
 
-	private static boolean take(Geometry boundary, Path file, double threshold)
+	private static void handleBundle(Geometry boundary, double threshold,
+			Path file, Path outputDirectory)
+	{
+		Envelope box = boundary.getEnvelopeInternal();
+		try (SmxBundleReader reader = new SmxBundleReader(file)) {
+			for (int i = 0; i < reader.size(); i++) {
+				Envelope envelope = reader.getEnvelope(i);
+				if (envelope != null && !envelope.intersects(box)) {
+					continue;
+				}
+				String name = reader.getName(i);
+				EntityFile entity;
+				try {
+					entity = reader.read(i);
+				} catch (IOException e) {
+					logger.info("unable to read entity: " + name);
+					continue;
+				}
+				if (!take(boundary, entity, threshold)) {
+					continue;
+				}
+				Path outFile = SmxBundleUnpack.resolve(outputDirectory, name);
+				if (outFile == null) {
+					logger.info("invalid entity name: " + name);
+					continue;
+				}
+				try {
+					logger.info("writing " + name + " to " + outFile);
+					SmxFileWriter.write(entity, outFile);
+				} catch (IOException | TransformerException
+						| ParserConfigurationException e) {
+					logger.debug("unable to write " + name + " to " + outFile);
+				}
+			}
+		} catch (IOException e) {
+			logger.info("unable to read bundle: " + file);
+		}
+	}
+
+	private static boolean take(Geometry boundary, EntityFile entity,
+			double threshold)
 	{
 		try {
-			EntityFile entity = SmxFileReader.read(file);
 			Geometry geometry = entity.getGeometry();
 			logger.debug(geometry.getGeometryType());
 			double area = geometry.getArea();
@@ -254,11 +305,19 @@ public class GeometrySelector
 			if (relative > threshold) {
 				return true;
 			}
+		} catch (TopologyException e) {
+			logger.info("TopologyException: " + e.getMessage());
+		}
+		return false;
+	}
 
+	private static boolean take(Geometry boundary, Path file, double threshold)
+	{
+		try {
+			EntityFile entity = SmxFileReader.read(file);
+			return take(boundary, entity, threshold);
 		} catch (IOException e) {
 			logger.info("unable to read geometry: " + file);
-		} catch (TopologyException e) {
-			logger.info("TopologyException: " + e.getMessage());
 		} catch (ParserConfigurationException e) {
 			logger.info("ParserConfigurationException: " + e.getMessage());
 		} catch (SAXException e) {
@@ -17,11 +17,6 @@
 
 package de.topobyte.simplemapfile.tools;
 
-import java.io.IOException;
-
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
-
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.HelpFormatter;
@@ -29,11 +24,7 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.SAXException;
 
-import de.topobyte.simplemapfile.core.EntityFile;
-import de.topobyte.simplemapfile.xml.SmxFileReader;
-import de.topobyte.simplemapfile.xml.SmxFileWriter;
 import de.topobyte.utilities.apache.commons.cli.OptionHelper;
 
 /**
@@ -52,15 +43,17 @@ public class SmxAddTag
 	private static final String OPTION_VALUE = "value";
 
 	/**
-	 * Add a tag to a smx file and write it to a new file.
+	 * Add a tag to a smx file and write it to a new file. If the input is a
+	 * directory, the tag is added to all files and the output is a directory
+	 * as well.
 	 */
 	public static void main(String args[])
 	{
 		Options options = new Options();
 		OptionHelper.addL(options, OPTION_INPUT, true, true, "file",
-				"a smx input file");
+				"a smx input file or directory");
 		OptionHelper.addL(options, OPTION_OUTPUT, true, true, "file",
-				"a smx output file");
+				"a smx output file or directory");
 		OptionHelper.addL(options, OPTION_KEY, true, true, "string",
 				"the key of the tag to add");
 		OptionHelper.addL(options, OPTION_VALUE, true, true, "string",
@@ -84,34 +77,8 @@ public class SmxAddTag
 		String argKey = commandLine.getOptionValue(OPTION_KEY);
 		String argValue = commandLine.getOptionValue(OPTION_VALUE);
 
-		// read input file
-		EntityFile entityFile = null;
-		try {
-			entityFile = SmxFileReader.read(argInput);
-		} catch (IOException e) {
-			logger.debug("unable to load entity: " + argInput);
-		} catch (ParserConfigurationException e) {
-			logger.debug("unable to load entity: " + argInput);
-		} catch (SAXException e) {
-			logger.debug("unable to load entity: " + argInput);
-		}
-		if (entityFile == null) {
-			return;
-		}
-
-		// add tag
-		entityFile.addTag(argKey, argValue);
-
-		// write output file
-		try {
-			SmxFileWriter.write(entityFile, argOutput);
-		} catch (IOException e) {
-			logger.debug("unable to store entity: " + argOutput);
-		} catch (TransformerException e) {
-			logger.debug("unable to store entity: " + argOutput);
-		} catch (ParserConfigurationException e) {
-			logger.debug("unable to store entity: " + argOutput);
-		}
+		TagRewriting.rewrite(argInput, argOutput,
+				tags -> tags.put(argKey, argValue));
 	}
 
 }
@@ -0,0 +1,154 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.tools;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.topobyte.simplemapfile.binary.GeometryEncoding;
+import de.topobyte.simplemapfile.binary.SmxBinaryWriter;
+import de.topobyte.simplemapfile.bundle.SmxBundleWriter;
+import de.topobyte.simplemapfile.core.AtomicFile;
+import de.topobyte.simplemapfile.xml.ReadMode;
+import de.topobyte.simplemapfile.xml.SmxDirectoryReader;
+import de.topobyte.utilities.apache.commons.cli.OptionHelper;
+
+/**
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxBundlePack
+{
+
+	final static Logger logger = LoggerFactory.getLogger(SmxBundlePack.class);
+
+	private static final String HELP_MESSAGE = "SmxBundlePack [args] <directory> <bundle>";
+
+	private static final String OPTION_NO_ENVELOPES = "no-envelopes";
+	private static final String OPTION_TWKB = "twkb";
+
+	/**
+	 * Pack all smx files of a directory into a single bundle file.
+	 */
+	public static void main(String args[])
+	{
+		// @formatter:off
+		Options options = new Options();
+		OptionHelper.addL(options, OPTION_NO_ENVELOPES, false, false, "do not store the envelopes of the entities");
+		OptionHelper.addL(options, OPTION_TWKB, true, false, "decimals", "store geometries as TWKB keeping this number of decimal places");
+		// @formatter:on
+
+		CommandLine line = null;
+		try {
+			line = new DefaultParser().parse(options, args);
+		} catch (ParseException e) {
+			System.out
+					.println("unable to parse command line: " + e.getMessage());
+			new HelpFormatter().printHelp(HELP_MESSAGE, options);
+			System.exit(1);
+		}
+		if (line == null) {
+			return;
+		}
+
+		String[] list = line.getArgs();
+		if (list.length != 2) {
+			new HelpFormatter().printHelp(HELP_MESSAGE, options);
+			System.exit(1);
+		}
+
+		Path dirInput = Paths.get(list[0]);
+		Path output = Paths.get(list[1]);
+		if (!Files.isDirectory(dirInput)) {
+			fail("input directory is not actually a directory");
+		}
+
+		SmxBinaryWriter binaryWriter = new SmxBinaryWriter();
+		if (line.hasOption(OPTION_TWKB)) {
+			try {
+				binaryWriter.setGeometryEncoding(GeometryEncoding.TWKB);
+				binaryWriter.setTwkbPrecision(
+						Integer.parseInt(line.getOptionValue(OPTION_TWKB)));
+			} catch (IllegalArgumentException e) {
+				fail("invalid argument: " + e.getMessage());
+			}
+		}
+		boolean envelopes = !line.hasOption(OPTION_NO_ENVELOPES);
+
+		// raw WKB gets copied to the bundle without decoding it
+		SmxDirectoryReader reader = new SmxDirectoryReader();
+		reader.setReadMode(ReadMode.LAZY_GEOMETRY);
+
+		// write to a temporary file first so that a failure does not leave an
+		// incomplete bundle without a footer at the destination
+		try {
+			AtomicFile.write(output, out -> {
+				try (SmxBundleWriter writer = new SmxBundleWriter(out,
+						binaryWriter, envelopes)) {
+					pack(reader, dirInput, writer);
+				}
+			}, true);
+		} catch (InterruptedIOException e) {
+			fail("interrupted while reading files");
+		} catch (IOException e) {
+			fail("IO error while packing: " + e.getMessage());
+		}
+	}
+
+	private static void pack(SmxDirectoryReader reader, Path dirInput,
+			SmxBundleWriter writer) throws IOException
+	{
+		try {
+			reader.read(dirInput, result -> {
+				String name = result.getFile().getFileName().toString();
+				if (!result.isSuccess()) {
+					logger.error("unable to read file: " + name);
+					return;
+				}
+				try {
+					writer.add(name, result.getEntity());
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private static void fail(String message)
+	{
+		System.out.println(message);
+		System.exit(1);
+	}
+
+}
@@ -0,0 +1,138 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.topobyte.simplemapfile.bundle.SmxBundleReader;
+import de.topobyte.simplemapfile.core.AtomicFileBatch;
+import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.xml.SmxWriter;
+import de.topobyte.utilities.apache.commons.cli.OptionHelper;
+
+/**
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxBundleUnpack
+{
+
+	final static Logger logger = LoggerFactory
+			.getLogger(SmxBundleUnpack.class);
+
+	private static final String HELP_MESSAGE = "SmxBundleUnpack [args] <bundle> <directory>";
+
+	private static final String OPTION_BINARY = "binary";
+
+	/**
+	 * Write each entity of a bundle file to a separate file in a directory.
+	 */
+	public static void main(String args[])
+	{
+		// @formatter:off
+		Options options = new Options();
+		OptionHelper.addL(options, OPTION_BINARY, false, false, "write the binary smx format");
+		// @formatter:on
+
+		CommandLine line = null;
+		try {
+			line = new DefaultParser().parse(options, args);
+		} catch (ParseException e) {
+			System.out
+					.println("unable to parse command line: " + e.getMessage());
+			new HelpFormatter().printHelp(HELP_MESSAGE, options);
+			System.exit(1);
+		}
+		if (line == null) {
+			return;
+		}
+
+		String[] list = line.getArgs();
+		if (list.length != 2) {
+			new HelpFormatter().printHelp(HELP_MESSAGE, options);
+			System.exit(1);
+		}
+
+		Path input = Paths.get(list[0]);
+		Path dirOutput = Paths.get(list[1]);
+		boolean binary = line.hasOption(OPTION_BINARY);
+
+		SmxWriter writer = new SmxWriter();
+
+		// commit all files at once, with a single sync of the directory
+		try (SmxBundleReader reader = new SmxBundleReader(input);
+				AtomicFileBatch batch = new AtomicFileBatch()) {
+			Files.createDirectories(dirOutput);
+			for (int i = 0; i < reader.size(); i++) {
+				String name = reader.getName(i);
+				Path file = resolve(dirOutput, name);
+				if (file == null) {
+					logger.error("skipping entity with invalid name: " + name);
+					continue;
+				}
+				if (binary) {
+					// records are stored in the binary format already
+					ByteBuffer record = reader.getRecord(i);
+					batch.write(file, output -> Channels.newChannel(output)
+							.write(record.duplicate()));
+				} else {
+					EntityFile entity = reader.read(i);
+					writer.write(entity, file, batch);
+				}
+			}
+			batch.commit();
+		} catch (IOException e) {
+			System.out.println("IO error while unpacking: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Resolve the name of a bundle entry against a directory.
+	 * 
+	 * @return the file or null if the name does not denote a file directly
+	 *         within the directory.
+	 */
+	static Path resolve(Path directory, String name)
+	{
+		Path dir = directory.toAbsolutePath().normalize();
+		Path file;
+		try {
+			file = dir.resolve(name).normalize();
+		} catch (RuntimeException e) {
+			return null;
+		}
+		if (name.isEmpty() || !dir.equals(file.getParent())) {
+			return null;
+		}
+		return file;
+	}
+
+}
@@ -22,6 +22,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Path;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -29,15 +30,17 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.locationtech.jts.geom.Envelope;
-import org.locationtech.jts.geom.Geometry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.topobyte.adt.geo.BBox;
-import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.bundle.SmxBundle;
+import de.topobyte.simplemapfile.bundle.SmxBundleReader;
+import de.topobyte.simplemapfile.core.GeometryStats;
 import de.topobyte.simplemapfile.index.SmxIndex;
 import de.topobyte.simplemapfile.index.SmxIndexEntry;
-import de.topobyte.simplemapfile.xml.SmxFileReader;
+import de.topobyte.simplemapfile.xml.ReadMode;
+import de.topobyte.simplemapfile.xml.SmxDirectoryReader;
 import de.topobyte.utilities.apache.commons.cli.OptionHelper;
 
 /**
@@ -49,6 +52,7 @@ public class SmxCreateIndex
 	final static Logger logger = LoggerFactory.getLogger(SmxCreateIndex.class);
 
 	public static final String DEFAULT_INDEX_FILENAME = "smx.index";
+	public static final String BUNDLE_INDEX_EXTENSION = ".index";
 
 	private static final String HELP_MESSAGE = "SmxCreateIndex [args]";
 
@@ -64,7 +68,7 @@ public class SmxCreateIndex
 		OptionHelper.addL(options, OPTION_OUTPUT, true, false, "file",
 				"an index output file");
 		OptionHelper.addL(options, OPTION_INPUT, true, true, "directory",
-				"an input directory with smx files");
+				"an input directory with smx files or a bundle file");
 
 		CommandLine commandLine = null;
 		try {
@@ -90,12 +94,20 @@ public class SmxCreateIndex
 		if (!dirInput.exists()) {
 			fail("input directory does not exist");
 		}
-		if (!dirInput.isDirectory()) {
-			fail("input directory is not actually a directory");
+		boolean bundle = false;
+		try {
+			bundle = SmxBundle.isBundle(dirInput.toPath());
+		} catch (IOException e) {
+			fail("IO error while reading input: " + e.getMessage());
+		}
+		if (!bundle && !dirInput.isDirectory()) {
+			fail("input is neither a directory nor a bundle file");
 		}
 
 		File output = null;
-		if (argOutput == null) {
+		if (argOutput == null && bundle) {
+			output = new File(dirInput.getPath() + BUNDLE_INDEX_EXTENSION);
+		} else if (argOutput == null) {
 			output = new File(dirInput, DEFAULT_INDEX_FILENAME);
 		} else {
 			output = new File(argOutput);
@@ -107,19 +119,10 @@ public class SmxCreateIndex
 
 		SmxIndex index = new SmxIndex();
 
-		File[] files = dirInput.listFiles();
-		for (File file : files) {
-			String name = file.getName();
-			EntityFile smx;
-			try {
-				smx = SmxFileReader.read(file);
-			} catch (Exception e) {
-				System.err.println("unable to read file: " + name);
-				continue;
-			}
-			Geometry geometry = smx.getGeometry();
-			Envelope envelope = geometry.getEnvelopeInternal();
-			index.add(new SmxIndexEntry(new BBox(envelope), name));
+		if (bundle) {
+			indexBundle(dirInput.toPath(), index);
+		} else {
+			indexDirectory(dirInput.toPath(), index);
 		}
 
 		try {
@@ -134,6 +137,71 @@ public class SmxCreateIndex
 		}
 	}
 
+	private static void indexDirectory(Path dirInput, SmxIndex index)
+	{
+		SmxDirectoryReader reader = new SmxDirectoryReader();
+		reader.setReadMode(ReadMode.LAZY_GEOMETRY);
+		try {
+			reader.read(dirInput, result -> {
+				String name = result.getFile().getFileName().toString();
+				if (!result.isSuccess()) {
+					System.err.println("unable to read file: " + name);
+					return;
+				}
+				GeometryStats stats;
+				try {
+					stats = GeometryStats.of(result.getEntity());
+				} catch (org.locationtech.jts.io.ParseException e) {
+					System.err.println("unable to read file: " + name);
+					return;
+				}
+				if (stats == null) {
+					System.err.println("no geometry in file: " + name);
+					return;
+				}
+				Envelope envelope = stats.getEnvelope();
+				index.add(new SmxIndexEntry(new BBox(envelope), name));
+			});
+		} catch (IOException e) {
+			fail("IO error while listing input directory: " + e.getMessage());
+		} catch (InterruptedException e) {
+			fail("interrupted while reading files");
+		}
+	}
+
+	/**
+	 * Index the entities of a bundle. Envelopes stored in the bundle's table
+	 * of contents are used if available.
+	 */
+	private static void indexBundle(Path file, SmxIndex index)
+	{
+		try (SmxBundleReader reader = new SmxBundleReader(file)) {
+			for (int i = 0; i < reader.size(); i++) {
+				String name = reader.getName(i);
+				Envelope envelope = reader.getEnvelope(i);
+				if (envelope == null) {
+					GeometryStats stats;
+					try {
+						stats = GeometryStats.of(reader.read(i));
+					} catch (org.locationtech.jts.io.ParseException e) {
+						System.err.println("unable to read entity: " + name);
+						continue;
+					}
+					if (stats != null) {
+						envelope = stats.getEnvelope();
+					}
+				}
+				if (envelope == null || envelope.isNull()) {
+					System.err.println("no geometry in entity: " + name);
+					continue;
+				}
+				index.add(new SmxIndexEntry(new BBox(envelope), name));
+			}
+		} catch (IOException e) {
+			fail("IO error while reading bundle: " + e.getMessage());
+		}
+	}
+
 	private static void fail(String message)
 	{
 		System.out.println(message);
@@ -18,6 +18,8 @@
 package de.topobyte.simplemapfile.tools;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -35,8 +37,10 @@ import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
 import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.xml.SmxDirectoryReader;
 import de.topobyte.simplemapfile.xml.SmxFileReader;
 import de.topobyte.simplemapfile.xml.SmxFileWriter;
+import de.topobyte.simplemapfile.xml.SmxReadResult;
 import de.topobyte.utilities.apache.commons.cli.OptionHelper;
 
 /**
@@ -106,17 +110,24 @@ public class SmxDifference
 		// read input files
 		List<EntityFile> entityFiles = new ArrayList<>();
 
+		List<Path> files = new ArrayList<>();
 		for (String filename : list) {
-			try {
-				EntityFile entity = SmxFileReader.read(filename);
-				entityFiles.add(entity);
-			} catch (IOException e) {
-				logger.error("unable to load entity: " + filename, e);
-			} catch (ParserConfigurationException e) {
-				logger.error("unable to load entity: " + filename, e);
-			} catch (SAXException e) {
-				logger.error("unable to load entity: " + filename, e);
+			files.add(Paths.get(filename));
+		}
+
+		try {
+			SmxDirectoryReader reader = new SmxDirectoryReader();
+			for (SmxReadResult result : reader.read(files)) {
+				if (result.isSuccess()) {
+					entityFiles.add(result.getEntity());
+				} else {
+					logger.error("unable to load entity: " + result.getFile(),
+							result.getError());
+				}
 			}
+		} catch (InterruptedException e) {
+			logger.error("interrupted while loading entities");
+			System.exit(1);
 		}
 
 		if (entityFiles.size() == 0) {
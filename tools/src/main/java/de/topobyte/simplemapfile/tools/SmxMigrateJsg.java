@@ -0,0 +1,273 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import de.topobyte.simplemapfile.core.AtomicFile;
+import de.topobyte.simplemapfile.core.AtomicFileBatch;
+import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.xml.GeometryType;
+import de.topobyte.simplemapfile.xml.SmxReader;
+import de.topobyte.simplemapfile.xml.SmxWriter;
+import de.topobyte.utilities.apache.commons.cli.OptionHelper;
+
+/**
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxMigrateJsg
+{
+
+	final static Logger logger = LoggerFactory.getLogger(SmxMigrateJsg.class);
+
+	private static final String HELP_MESSAGE = "SmxMigrateJsg [args] <directory>";
+
+	private static final String OPTION_DRY_RUN = "dry-run";
+	private static final String OPTION_THREADS = "threads";
+	private static final String OPTION_BATCH_SIZE = "batch-size";
+
+	/**
+	 * Find all smx files within a directory tree whose geometry is stored as
+	 * serialized Java objects (JSG) and rewrite them with WKB geometries. Z
+	 * ordinates are kept for geometries that have them.
+	 */
+	public static void main(String args[])
+	{
+		// @formatter:off
+		Options options = new Options();
+		OptionHelper.addL(options, OPTION_DRY_RUN, false, false, "only report the files that would be migrated");
+		OptionHelper.addL(options, OPTION_THREADS, true, false, "number", "the number of threads to use (default: number of processors)");
+		OptionHelper.addL(options, OPTION_BATCH_SIZE, true, false, "number", "the number of files to commit at once (default: 1000)");
+		// @formatter:on
+
+		CommandLine line = null;
+		try {
+			line = new DefaultParser().parse(options, args);
+		} catch (ParseException e) {
+			System.out
+					.println("unable to parse command line: " + e.getMessage());
+			new HelpFormatter().printHelp(HELP_MESSAGE, options);
+			System.exit(1);
+		}
+		if (line == null) {
+			return;
+		}
+
+		String[] list = line.getArgs();
+		if (list.length != 1) {
+			new HelpFormatter().printHelp(HELP_MESSAGE, options);
+			System.exit(1);
+		}
+
+		Path directory = Paths.get(list[0]);
+		if (!Files.isDirectory(directory)) {
+			System.out.println("input directory is not actually a directory");
+			System.exit(1);
+		}
+
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		if (line.hasOption(OPTION_THREADS)) {
+			try {
+				numThreads = Integer
+						.parseInt(line.getOptionValue(OPTION_THREADS));
+			} catch (NumberFormatException e) {
+				numThreads = 0;
+			}
+			if (numThreads < 1) {
+				System.out.println("invalid number of threads");
+				System.exit(1);
+			}
+		}
+
+		int batchSize = 1000;
+		if (line.hasOption(OPTION_BATCH_SIZE)) {
+			try {
+				batchSize = Integer
+						.parseInt(line.getOptionValue(OPTION_BATCH_SIZE));
+			} catch (NumberFormatException e) {
+				batchSize = 0;
+			}
+			if (batchSize < 1) {
+				System.out.println("invalid batch size");
+				System.exit(1);
+			}
+		}
+
+		SmxMigrateJsg migrate = new SmxMigrateJsg(
+				line.hasOption(OPTION_DRY_RUN));
+		try {
+			migrate.execute(directory, numThreads, batchSize);
+		} catch (IOException e) {
+			System.out.println("IO error while migrating: " + e.getMessage());
+			System.exit(1);
+		} catch (InterruptedException e) {
+			System.out.println("interrupted while migrating");
+			System.exit(1);
+		}
+	}
+
+	private boolean dryRun;
+
+	private SmxReader reader = new SmxReader();
+	private SmxWriter writer = new SmxWriter();
+	private SmxWriter writer3d = new SmxWriter();
+
+	private AtomicInteger numScanned = new AtomicInteger();
+	private AtomicInteger numJsg = new AtomicInteger();
+	private AtomicInteger numZ = new AtomicInteger();
+	private AtomicInteger numMigrated = new AtomicInteger();
+	private AtomicInteger numFailed = new AtomicInteger();
+
+	public SmxMigrateJsg(boolean dryRun)
+	{
+		this.dryRun = dryRun;
+		writer3d.setOutputDimension(3);
+	}
+
+	/**
+	 * Migrate all files below the directory. The rewritten files are
+	 * committed in batches of the specified size, which bounds the number of
+	 * temporary files that exist at the same time.
+	 */
+	public void execute(Path directory, int numThreads, int batchSize)
+			throws IOException, InterruptedException
+	{
+		List<Path> files;
+		try (Stream<Path> stream = Files.walk(directory)) {
+			files = stream.filter(Files::isRegularFile)
+					.filter(file -> !AtomicFile.isTemporary(file))
+					.collect(Collectors.toList());
+		}
+
+		// each file gets replaced atomically, committing them together syncs
+		// each directory only once per batch
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		AtomicFileBatch batch = new AtomicFileBatch();
+		try {
+			for (int i = 0; i < files.size(); i += batchSize) {
+				List<Path> chunk = files.subList(i,
+						Math.min(i + batchSize, files.size()));
+				List<Future<?>> futures = new ArrayList<>();
+				for (Path file : chunk) {
+					futures.add(executor.submit(() -> process(file, batch)));
+				}
+				for (Future<?> future : futures) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						logger.error("error while migrating", e.getCause());
+						numFailed.incrementAndGet();
+					}
+				}
+				batch.commit();
+			}
+		} finally {
+			// make sure no worker adds files to the batch while it is being
+			// rolled back
+			executor.shutdownNow();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} finally {
+				batch.close();
+			}
+		}
+
+		System.out.println(String.format(
+				"scanned: %d, jsg: %d, with z: %d, migrated: %d, failed: %d",
+				numScanned.get(), numJsg.get(), numZ.get(), numMigrated.get(),
+				numFailed.get()));
+	}
+
+	private void process(Path file, AtomicFileBatch batch)
+	{
+		numScanned.incrementAndGet();
+		try {
+			if (reader.readGeometryType(file) != GeometryType.JSG_BASE64) {
+				return;
+			}
+		} catch (IOException | ParserConfigurationException
+				| SAXException e) {
+			logger.warn("skipping unreadable file: " + file);
+			return;
+		}
+		numJsg.incrementAndGet();
+
+		try {
+			EntityFile entity = reader.read(file);
+			Geometry geometry = entity.getGeometry();
+			if (geometry == null) {
+				logger.error("unable to decode jsg geometry: " + file);
+				numFailed.incrementAndGet();
+				return;
+			}
+			boolean hasZ = hasZ(geometry);
+			if (hasZ) {
+				numZ.incrementAndGet();
+			}
+			if (dryRun) {
+				System.out.println((hasZ ? "jsg with z: " : "jsg: ") + file);
+				return;
+			}
+			// WKBWriter writes NaN for missing Z ordinates, so use the 3D
+			// writer only when needed
+			(hasZ ? writer3d : writer).write(entity, file, batch);
+			numMigrated.incrementAndGet();
+		} catch (IOException | ParserConfigurationException
+				| SAXException e) {
+			logger.error("unable to migrate file: " + file, e);
+			numFailed.incrementAndGet();
+		}
+	}
+
+	private static boolean hasZ(Geometry geometry)
+	{
+		for (Coordinate coordinate : geometry.getCoordinates()) {
+			if (!Double.isNaN(coordinate.z)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
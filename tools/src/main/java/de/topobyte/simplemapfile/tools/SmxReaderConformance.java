@@ -0,0 +1,158 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.locationtech.jts.geom.Geometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.topobyte.melon.paths.PathUtil;
+import de.topobyte.simplemapfile.core.AtomicFile;
+import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.xml.ReadMode;
+import de.topobyte.simplemapfile.xml.SmxFastReader;
+import de.topobyte.simplemapfile.xml.SmxFileReader;
+
+/**
+ * This tool reads a set of files using both {@link SmxFileReader} and
+ * {@link SmxFastReader} and reports any file for which the results differ.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxReaderConformance
+{
+
+	final static Logger logger = LoggerFactory
+			.getLogger(SmxReaderConformance.class);
+
+	private static final String HELP_MESSAGE = "SmxReaderConformance <files or directories...>";
+
+	/**
+	 * Compare the output of the SAX based and the fast reader.
+	 */
+	public static void main(String args[]) throws IOException
+	{
+		Options options = new Options();
+
+		CommandLine commandLine = null;
+		try {
+			commandLine = new DefaultParser().parse(options, args);
+		} catch (ParseException e) {
+			System.out
+					.println("unable to parse command line: " + e.getMessage());
+			new HelpFormatter().printHelp(HELP_MESSAGE, options);
+			System.exit(1);
+		}
+		if (commandLine == null) {
+			return;
+		}
+
+		String[] list = commandLine.getArgs();
+		if (list.length < 1) {
+			new HelpFormatter().printHelp(HELP_MESSAGE, options);
+			System.exit(1);
+		}
+
+		List<Path> files = new ArrayList<>();
+		for (String filename : list) {
+			Path path = Paths.get(filename);
+			if (Files.isDirectory(path)) {
+				for (Path file : PathUtil.list(path)) {
+					if (!AtomicFile.isTemporary(file)) {
+						files.add(file);
+					}
+				}
+			} else {
+				files.add(path);
+			}
+		}
+
+		SmxFastReader fastReader = new SmxFastReader();
+
+		int numFailed = 0;
+		for (Path file : files) {
+			String problem = compare(fastReader, file);
+			if (problem != null) {
+				System.out.println(file + ": " + problem);
+				numFailed++;
+			}
+		}
+
+		System.out.println(String.format("checked %d files, %d differ",
+				files.size(), numFailed));
+		if (numFailed != 0) {
+			System.exit(1);
+		}
+	}
+
+	private static String compare(SmxFastReader fastReader, Path file)
+	{
+		EntityFile expected;
+		try {
+			expected = SmxFileReader.read(file, ReadMode.LAZY_GEOMETRY);
+		} catch (Exception e) {
+			expected = null;
+		}
+
+		EntityFile actual;
+		try {
+			actual = fastReader.read(file, ReadMode.LAZY_GEOMETRY);
+		} catch (Exception e) {
+			actual = null;
+		}
+
+		if (expected == null || actual == null) {
+			if (expected == actual) {
+				return null;
+			}
+			return expected == null ? "only readable by fast reader"
+					: "only readable by SAX reader";
+		}
+
+		if (!expected.getTags().equals(actual.getTags())) {
+			return "tags differ";
+		}
+
+		byte[] wkb1 = expected.getWkb();
+		byte[] wkb2 = actual.getWkb();
+		if (wkb1 != null || wkb2 != null) {
+			return Arrays.equals(wkb1, wkb2) ? null : "wkb differs";
+		}
+
+		Geometry geometry1 = expected.getGeometry();
+		Geometry geometry2 = actual.getGeometry();
+		if (geometry1 == null || geometry2 == null) {
+			return geometry1 == geometry2 ? null : "geometry differs";
+		}
+		return geometry1.equalsExact(geometry2) ? null : "geometry differs";
+	}
+
+}
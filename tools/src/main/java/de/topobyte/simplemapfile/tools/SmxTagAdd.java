@@ -21,7 +21,6 @@ import java.io.IOException;
 import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -33,8 +32,8 @@ import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
 import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.xml.ReadMode;
 import de.topobyte.simplemapfile.xml.SmxFileReader;
-import de.topobyte.simplemapfile.xml.SmxFileWriter;
 import de.topobyte.utilities.apache.commons.cli.OptionHelper;
 import de.topobyte.utilities.apache.commons.cli.parsing.ArgumentHelper;
 import de.topobyte.utilities.apache.commons.cli.parsing.ArgumentParseException;
@@ -98,20 +97,10 @@ public class SmxTagAdd
 			System.exit(1);
 		}
 
-		// read input file
-		EntityFile entityFile = null;
+		// read tags to add
 		EntityFile entityFileAdd = null;
 		try {
-			entityFile = SmxFileReader.read(argInput);
-		} catch (IOException e) {
-			logger.debug("unable to load entity: " + argInput);
-		} catch (ParserConfigurationException e) {
-			logger.debug("unable to load entity: " + argInput);
-		} catch (SAXException e) {
-			logger.debug("unable to load entity: " + argInput);
-		}
-		try {
-			entityFileAdd = SmxFileReader.read(argInputAdd);
+			entityFileAdd = SmxFileReader.read(argInputAdd, ReadMode.TAGS_ONLY);
 		} catch (IOException e) {
 			logger.debug("unable to load entity: " + argInputAdd);
 		} catch (ParserConfigurationException e) {
@@ -119,37 +108,29 @@ public class SmxTagAdd
 		} catch (SAXException e) {
 			logger.debug("unable to load entity: " + argInputAdd);
 		}
-		if (entityFile == null || entityFileAdd == null) {
+		if (entityFileAdd == null) {
 			return;
 		}
 
 		// work on files
-		Map<String, String> tags = entityFile.getTags();
 		Map<String, String> tagsAdd = entityFileAdd.getTags();
-
-		for (String key : tagsAdd.keySet()) {
-			String val = tags.get(key);
-			String valAdd = tagsAdd.get(key);
-			if (val == null) {
-				entityFile.addTag(key, valAdd);
-			} else {
-				if (!val.equals(valAdd)) {
-					if (replace) {
-						entityFile.addTag(key, valAdd);
+		boolean replaceExisting = replace;
+
+		TagRewriting.rewrite(argInput, argOutput, tags -> {
+			for (String key : tagsAdd.keySet()) {
+				String val = tags.get(key);
+				String valAdd = tagsAdd.get(key);
+				if (val == null) {
+					tags.put(key, valAdd);
+				} else {
+					if (!val.equals(valAdd)) {
+						if (replaceExisting) {
+							tags.put(key, valAdd);
+						}
 					}
 				}
 			}
-		}
-
-		try {
-			SmxFileWriter.write(entityFile, argOutput);
-		} catch (IOException e) {
-			logger.debug("unable to store entity: " + argOutput, e);
-		} catch (TransformerException e) {
-			logger.error("unable to store entity: " + argOutput, e);
-		} catch (ParserConfigurationException e) {
-			logger.error("unable to store entity: " + argOutput, e);
-		}
+		});
 	}
 
 }
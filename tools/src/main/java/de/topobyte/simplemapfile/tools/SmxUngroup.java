@@ -25,7 +25,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -38,6 +37,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
+import de.topobyte.simplemapfile.core.AtomicFileBatch;
 import de.topobyte.simplemapfile.core.EntityFile;
 import de.topobyte.simplemapfile.xml.SmxFileReader;
 import de.topobyte.simplemapfile.xml.SmxFileWriter;
@@ -131,6 +131,8 @@ public class SmxUngroup
 			geometries.add(geometry);
 		}
 
+		// commit all files at once, with a single sync of the directory
+		AtomicFileBatch batch = new AtomicFileBatch();
 		for (int i = 0; i < geometries.size(); i++) {
 			// create entity file
 			EntityFile outputFile = new EntityFile();
@@ -147,15 +149,16 @@ public class SmxUngroup
 			// write output file
 			File output = new File(directory, String.format("%d.smx", i + 1));
 			try {
-				SmxFileWriter.write(outputFile, output);
+				SmxFileWriter.write(outputFile, output.toPath(), batch);
 			} catch (IOException e) {
-				logger.debug("unable to store entity: " + output, e);
-			} catch (TransformerException e) {
-				logger.error("unable to store entity: " + output, e);
-			} catch (ParserConfigurationException e) {
 				logger.error("unable to store entity: " + output, e);
 			}
 		}
+		try {
+			batch.commit();
+		} catch (IOException e) {
+			logger.error("unable to store entities", e);
+		}
 	}
 
 }
@@ -0,0 +1,101 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import de.topobyte.melon.paths.PathUtil;
+import de.topobyte.simplemapfile.core.AtomicFile;
+import de.topobyte.simplemapfile.core.AtomicFileBatch;
+import de.topobyte.simplemapfile.xml.SmxTagRewriter;
+
+/**
+ * Shared implementation of the tag editing tools. Tags are edited using a
+ * {@link SmxTagRewriter}, which copies geometries without decoding them.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+class TagRewriting
+{
+
+	final static Logger logger = LoggerFactory.getLogger(TagRewriting.class);
+
+	/**
+	 * Apply the edit to a single file or, if the input is a directory, to all
+	 * files within that directory, writing the results to the output
+	 * directory.
+	 */
+	static void rewrite(String argInput, String argOutput,
+			Consumer<Map<String, String>> edit)
+	{
+		SmxTagRewriter rewriter = new SmxTagRewriter();
+		Path input = Paths.get(argInput);
+		Path output = Paths.get(argOutput);
+
+		if (!Files.isDirectory(input)) {
+			rewrite(rewriter, input, output, edit, null);
+			return;
+		}
+
+		// commit all files at once, with a single sync of the directory
+		try (AtomicFileBatch batch = new AtomicFileBatch()) {
+			Files.createDirectories(output);
+			for (Path file : PathUtil.list(input)) {
+				if (Files.isRegularFile(file)
+						&& !AtomicFile.isTemporary(file)) {
+					rewrite(rewriter, file,
+							output.resolve(file.getFileName()), edit, batch);
+				}
+			}
+			batch.commit();
+		} catch (IOException e) {
+			logger.error("unable to process directory: " + input, e);
+		}
+	}
+
+	private static void rewrite(SmxTagRewriter rewriter, Path input,
+			Path output, Consumer<Map<String, String>> edit,
+			AtomicFileBatch batch)
+	{
+		try {
+			if (batch == null) {
+				rewriter.rewrite(input, output, edit);
+			} else {
+				rewriter.rewrite(input, output, edit, batch);
+			}
+		} catch (IOException e) {
+			logger.error("unable to rewrite entity: " + input, e);
+		} catch (ParserConfigurationException e) {
+			logger.error("unable to rewrite entity: " + input, e);
+		} catch (SAXException e) {
+			logger.error("unable to rewrite entity: " + input, e);
+		}
+	}
+
+}
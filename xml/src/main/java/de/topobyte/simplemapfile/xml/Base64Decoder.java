@@ -0,0 +1,172 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+/**
+ * An incremental base64 decoder that consumes character chunks as they are
+ * delivered by a SAX parser and writes the decoded bytes to a single growable
+ * buffer.
+ * 
+ * Decoding is lenient in the same way as commons-codec's Base64: characters
+ * outside of the (standard or URL-safe) alphabet are skipped, the first
+ * padding character ends the input and incomplete trailing groups are decoded
+ * as far as possible.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+class Base64Decoder
+{
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final byte[] TABLE = new byte[128];
+	static {
+		Arrays.fill(TABLE, (byte) -1);
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+				+ "abcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int i = 0; i < alphabet.length(); i++) {
+			TABLE[alphabet.charAt(i)] = (byte) i;
+		}
+		TABLE['-'] = 62;
+		TABLE['_'] = 63;
+	}
+
+	private byte[] buffer = new byte[INITIAL_CAPACITY];
+	private int length = 0;
+
+	private int bits = 0;
+	private int numSextets = 0;
+	private boolean eof = false;
+
+	public void decode(char[] ch, int start, int len)
+	{
+		if (eof) {
+			return;
+		}
+		ensureCapacity(length + (numSextets + len) / 4 * 3);
+
+		int end = start + len;
+		for (int i = start; i < end && !eof; i++) {
+			decodeSymbol(ch[i]);
+		}
+	}
+
+	/**
+	 * Decode ASCII encoded base64 text. Bytes outside of the ASCII range are
+	 * skipped just like non-ASCII characters in {@link #decode(char[], int, int)}.
+	 */
+	public void decode(byte[] b, int start, int len)
+	{
+		if (eof) {
+			return;
+		}
+		ensureCapacity(length + (numSextets + len) / 4 * 3);
+
+		int end = start + len;
+		for (int i = start; i < end && !eof; i++) {
+			decodeSymbol(b[i] & 0xff);
+		}
+	}
+
+	/**
+	 * Consume a single character of the input. The caller needs to ensure
+	 * the capacity of the buffer for a complete group.
+	 */
+	private void decodeSymbol(int c)
+	{
+		if (c == '=') {
+			eof = true;
+			return;
+		}
+		if (c >= 128) {
+			return;
+		}
+		int value = TABLE[c];
+		if (value < 0) {
+			return;
+		}
+		bits = (bits << 6) | value;
+		if (++numSextets == 4) {
+			buffer[length++] = (byte) (bits >> 16);
+			buffer[length++] = (byte) (bits >> 8);
+			buffer[length++] = (byte) bits;
+			bits = 0;
+			numSextets = 0;
+		}
+	}
+
+	/**
+	 * Flush a pending incomplete group. No more input is accepted afterwards.
+	 */
+	public void finish()
+	{
+		eof = true;
+		ensureCapacity(length + 2);
+		if (numSextets == 2) {
+			buffer[length++] = (byte) (bits >> 4);
+		} else if (numSextets == 3) {
+			buffer[length++] = (byte) (bits >> 10);
+			buffer[length++] = (byte) (bits >> 2);
+		}
+		bits = 0;
+		numSextets = 0;
+	}
+
+	public int getLength()
+	{
+		return length;
+	}
+
+	/**
+	 * @return the internal buffer, of which the first {@link #getLength()}
+	 *         bytes are valid.
+	 */
+	public byte[] getBuffer()
+	{
+		return buffer;
+	}
+
+	/**
+	 * @return a copy of the decoded bytes of exactly the decoded length.
+	 */
+	public byte[] toByteArray()
+	{
+		return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * @return a stream on the decoded bytes that does not copy the buffer.
+	 */
+	public ByteArrayInputStream toInputStream()
+	{
+		return new ByteArrayInputStream(buffer, 0, length);
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity <= buffer.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, buffer.length * 2);
+		buffer = Arrays.copyOf(buffer, newCapacity);
+	}
+
+}
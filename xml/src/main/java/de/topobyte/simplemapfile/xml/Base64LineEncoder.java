@@ -0,0 +1,121 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.locationtech.jts.io.OutStream;
+
+/**
+ * Encodes the bytes written to it as base64 and writes the resulting text to a
+ * {@link Writer}, broken into lines of a fixed width. Each line, including the
+ * last incomplete one, is terminated with the specified line separator.
+ * 
+ * Only a single line of output is buffered, so that memory usage does not
+ * depend on the amount of data encoded.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+class Base64LineEncoder implements OutStream
+{
+
+	private static final char[] ALPHABET = ("ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+			+ "abcdefghijklmnopqrstuvwxyz0123456789+/").toCharArray();
+
+	private Writer writer;
+	private String newLine;
+
+	private char[] line;
+	private int lineLength = 0;
+
+	private int bits = 0;
+	private int numPending = 0;
+
+	/**
+	 * @param lineWidth
+	 *            the number of characters per line, must be a multiple of 4.
+	 */
+	public Base64LineEncoder(Writer writer, int lineWidth, String newLine)
+	{
+		this.writer = writer;
+		this.newLine = newLine;
+		line = new char[lineWidth];
+	}
+
+	@Override
+	public void write(byte[] buf, int len) throws IOException
+	{
+		for (int i = 0; i < len; i++) {
+			bits = (bits << 8) | (buf[i] & 0xff);
+			if (++numPending == 3) {
+				emit(4);
+				bits = 0;
+				numPending = 0;
+			}
+		}
+	}
+
+	/**
+	 * Encode pending bytes with padding and terminate the last line.
+	 */
+	public void finish() throws IOException
+	{
+		if (numPending == 1) {
+			bits <<= 16;
+			emit(2);
+			pad(2);
+		} else if (numPending == 2) {
+			bits <<= 8;
+			emit(3);
+			pad(1);
+		}
+		bits = 0;
+		numPending = 0;
+		if (lineLength > 0) {
+			writer.write(line, 0, lineLength);
+			writer.write(newLine);
+			lineLength = 0;
+		}
+	}
+
+	private void emit(int numChars) throws IOException
+	{
+		for (int i = 0; i < numChars; i++) {
+			append(ALPHABET[(bits >> (18 - 6 * i)) & 0x3f]);
+		}
+	}
+
+	private void pad(int n) throws IOException
+	{
+		for (int i = 0; i < n; i++) {
+			append('=');
+		}
+	}
+
+	private void append(char c) throws IOException
+	{
+		line[lineLength++] = c;
+		if (lineLength == line.length) {
+			writer.write(line);
+			writer.write(newLine);
+			lineLength = 0;
+		}
+	}
+
+}
@@ -0,0 +1,99 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+/**
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+class Buffers
+{
+
+	/**
+	 * Map the contents of the channel from its current position up to its end
+	 * into memory.
+	 */
+	static MappedByteBuffer map(FileChannel channel) throws IOException
+	{
+		long position = channel.position();
+		long size = channel.size() - position;
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("file too large to map: " + size);
+		}
+		return channel.map(MapMode.READ_ONLY, position, size);
+	}
+
+	/**
+	 * @return a stream that supports mark and reset, which is either the input
+	 *         itself or a buffered stream wrapping it.
+	 */
+	static InputStream markable(InputStream input)
+	{
+		if (input.markSupported()) {
+			return input;
+		}
+		return new BufferedInputStream(input);
+	}
+
+	/**
+	 * Look at the next bytes of the stream without consuming them.
+	 * 
+	 * @param input
+	 *            a stream that supports mark and reset.
+	 * @return the next bytes of the stream, less than requested only if the
+	 *         end of the stream has been reached.
+	 */
+	static byte[] peek(InputStream input, int n) throws IOException
+	{
+		byte[] bytes = new byte[n];
+		input.mark(n);
+		int total = 0;
+		try {
+			while (total < n) {
+				int r = input.read(bytes, total, n - total);
+				if (r < 0) {
+					break;
+				}
+				total += r;
+			}
+		} finally {
+			input.reset();
+		}
+		return total == n ? bytes : Arrays.copyOf(bytes, total);
+	}
+
+	static byte[] readFully(InputStream input) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = input.read(buffer)) >= 0) {
+			baos.write(buffer, 0, n);
+		}
+		return baos.toByteArray();
+	}
+
+}
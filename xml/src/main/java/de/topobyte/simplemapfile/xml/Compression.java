@@ -0,0 +1,88 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Detection and handling of gzip compressed smx files. Compressed input is
+ * recognized by the gzip magic bytes, which can never start a valid XML
+ * document. Compressed output is produced for file names ending with
+ * {@value #GZIP_EXTENSION}.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+class Compression
+{
+
+	static final String GZIP_EXTENSION = ".gz";
+
+	private static final int GZIP_MAGIC_1 = 0x1f;
+	private static final int GZIP_MAGIC_2 = 0x8b;
+
+	static boolean isGzip(ByteBuffer data)
+	{
+		int pos = data.position();
+		return data.remaining() >= 2 && (data.get(pos) & 0xff) == GZIP_MAGIC_1
+				&& (data.get(pos + 1) & 0xff) == GZIP_MAGIC_2;
+	}
+
+	/**
+	 * @return a stream that decompresses the input if it is gzip compressed
+	 *         and otherwise returns the data unchanged.
+	 */
+	static InputStream decompress(InputStream input) throws IOException
+	{
+		if (!input.markSupported()) {
+			input = new BufferedInputStream(input);
+		}
+		input.mark(2);
+		int b1 = input.read();
+		int b2 = input.read();
+		input.reset();
+		if (b1 == GZIP_MAGIC_1 && b2 == GZIP_MAGIC_2) {
+			return new GZIPInputStream(input);
+		}
+		return input;
+	}
+
+	static boolean isGzipFilename(String filename)
+	{
+		return filename.endsWith(GZIP_EXTENSION);
+	}
+
+	/**
+	 * @return a stream that compresses the data written to it if the filename
+	 *         indicates so, or the output itself otherwise.
+	 */
+	static OutputStream compress(OutputStream output, String filename)
+			throws IOException
+	{
+		if (isGzipFilename(filename)) {
+			return new GZIPOutputStream(output);
+		}
+		return output;
+	}
+
+}
@@ -26,13 +26,15 @@ import java.util.Map;
 public enum GeometryType {
 
 	WKB_BASE64,
-	JSG_BASE64;
+	JSG_BASE64,
+	TWKB_BASE64;
 
 	public static Map<String, GeometryType> switcher = new HashMap<>();
 
 	static {
 		switcher.put("wkb-base64", WKB_BASE64);
 		switcher.put("jsg-base64", JSG_BASE64);
+		switcher.put("twkb-base64", TWKB_BASE64);
 	}
 
 }
@@ -0,0 +1,38 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Thrown by {@link SmxFileHandler} to abort parsing as soon as everything
+ * requested has been read.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+class ParsingFinishedException extends SAXException
+{
+
+	private static final long serialVersionUID = 1L;
+
+	public ParsingFinishedException()
+	{
+		super("parsing finished");
+	}
+
+}
@@ -0,0 +1,43 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+/**
+ * Determines how much of a smx file gets decoded while reading it.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public enum ReadMode {
+
+	/**
+	 * Read tags and decode the geometry right away.
+	 */
+	FULL,
+	/**
+	 * Read tags and keep WKB geometries as raw bytes in the entity, to be
+	 * decoded on first access. As in {@link #FULL} mode, WKB that cannot be
+	 * decoded results in a warning and no geometry.
+	 */
+	LAZY_GEOMETRY,
+	/**
+	 * Read tags only and stop parsing once the geometry element is reached.
+	 * Entities read this way do not have a geometry.
+	 */
+	TAGS_ONLY;
+
+}
@@ -0,0 +1,218 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import de.topobyte.simplemapfile.core.AtomicFile;
+
+/**
+ * Reads a directory or a list of smx files using a number of worker threads.
+ * 
+ * Failing to read a file does not abort the process. Instead, each file
+ * produces a {@link SmxReadResult} that carries either the entity or the
+ * exception that occurred. Results are delivered in the order of the input
+ * files by default, or in the order in which they finish otherwise. Only a
+ * bounded number of files is read ahead of the consumer, so that streaming
+ * through a large directory does not require holding all entities in memory.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxDirectoryReader
+{
+
+	private SmxReader reader;
+	private ReadMode mode = ReadMode.FULL;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private boolean ordered = true;
+
+	public SmxDirectoryReader()
+	{
+		this(new SmxReader());
+	}
+
+	public SmxDirectoryReader(SmxReader reader)
+	{
+		this.reader = reader;
+	}
+
+	public ReadMode getReadMode()
+	{
+		return mode;
+	}
+
+	public void setReadMode(ReadMode mode)
+	{
+		this.mode = mode;
+	}
+
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	public void setNumThreads(int numThreads)
+	{
+		if (numThreads < 1) {
+			throw new IllegalArgumentException(
+					"need at least one thread: " + numThreads);
+		}
+		this.numThreads = numThreads;
+	}
+
+	public boolean isOrdered()
+	{
+		return ordered;
+	}
+
+	/**
+	 * @param ordered
+	 *            whether results should be delivered in the order of the input
+	 *            files (the default) or as soon as they are available.
+	 */
+	public void setOrdered(boolean ordered)
+	{
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Read all regular files in the specified directory, in the order of their
+	 * names.
+	 */
+	public List<SmxReadResult> read(Path directory)
+			throws IOException, InterruptedException
+	{
+		return read(list(directory));
+	}
+
+	public List<SmxReadResult> read(List<Path> files)
+			throws InterruptedException
+	{
+		List<SmxReadResult> results = new ArrayList<>(files.size());
+		read(files, results::add);
+		return results;
+	}
+
+	/**
+	 * Read all regular files in the specified directory, in the order of their
+	 * names, passing each result to the consumer.
+	 */
+	public void read(Path directory, Consumer<SmxReadResult> consumer)
+			throws IOException, InterruptedException
+	{
+		read(list(directory), consumer);
+	}
+
+	/**
+	 * Read the specified files, passing each result to the consumer. The
+	 * consumer is always called on the calling thread.
+	 */
+	public void read(List<Path> files, Consumer<SmxReadResult> consumer)
+			throws InterruptedException
+	{
+		int maxPending = numThreads * 4;
+		Iterator<Path> iterator = files.iterator();
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			if (ordered) {
+				Deque<Future<SmxReadResult>> pending = new ArrayDeque<>();
+				while (iterator.hasNext() || !pending.isEmpty()) {
+					while (iterator.hasNext() && pending.size() < maxPending) {
+						pending.add(executor.submit(task(iterator.next())));
+					}
+					consumer.accept(get(pending.removeFirst()));
+				}
+			} else {
+				CompletionService<SmxReadResult> completion = new ExecutorCompletionService<>(
+						executor);
+				int numPending = 0;
+				while (iterator.hasNext() || numPending > 0) {
+					while (iterator.hasNext() && numPending < maxPending) {
+						completion.submit(task(iterator.next()));
+						numPending++;
+					}
+					consumer.accept(get(completion.take()));
+					numPending--;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Callable<SmxReadResult> task(Path file)
+	{
+		return () -> {
+			try {
+				return new SmxReadResult(file, reader.read(file, mode), null);
+			} catch (Exception e) {
+				return new SmxReadResult(file, null, e);
+			}
+		};
+	}
+
+	private static SmxReadResult get(Future<SmxReadResult> future)
+			throws InterruptedException
+	{
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			// tasks catch all exceptions, so this can only be an error
+			Throwable cause = e.getCause();
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	private static List<Path> list(Path directory) throws IOException
+	{
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files
+				.newDirectoryStream(directory)) {
+			for (Path file : stream) {
+				if (Files.isRegularFile(file)
+						&& !AtomicFile.isTemporary(file)) {
+					files.add(file);
+				}
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+}
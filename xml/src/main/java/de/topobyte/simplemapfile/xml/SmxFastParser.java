@@ -0,0 +1,529 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * A parser for the subset of XML that smx files are written in, working
+ * directly on UTF-8 encoded bytes. It drives a {@link SmxFileHandler} with the
+ * same callbacks a SAX parser would produce, so that the resulting entity is
+ * the same.
+ * 
+ * The supported subset consists of an optional XML declaration (version 1.0,
+ * UTF-8 encoding), the elements 'entity', 'tag' and 'geometry' with arbitrary
+ * attributes and ASCII text content without entity references. Whenever
+ * anything else is encountered (comments, processing instructions, DOCTYPE,
+ * CDATA sections, other elements, other encodings or malformed input) an
+ * {@link UnsupportedSyntaxException} is thrown and the input should be parsed
+ * using a real XML parser instead.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+class SmxFastParser
+{
+
+	private static final int CHUNK_SIZE = 4096;
+
+	private static final String[] KNOWN_NAMES = new String[] { "entity",
+			"tag", "geometry", "k", "v", "type", "version", "encoding",
+			"standalone" };
+
+	private static final String[] ELEMENT_NAMES = new String[] { "entity",
+			"tag", "geometry" };
+
+	private ByteBuffer buf;
+	private int pos;
+	private int limit;
+	private int elementStart = -1;
+
+	private SmxFileHandler handler;
+
+	private byte[] scratch = null;
+	private AttributesImpl attributes = new AttributesImpl();
+	private Deque<String> open = new ArrayDeque<>();
+	private CharsetDecoder utf8 = null;
+
+	/**
+	 * @param buf
+	 *            the data to parse, from its position up to its limit. The
+	 *            position of the buffer is not modified.
+	 */
+	public SmxFastParser(ByteBuffer buf, SmxFileHandler handler)
+	{
+		this.buf = buf;
+		this.handler = handler;
+		pos = buf.position();
+		limit = buf.limit();
+	}
+
+	public void parse() throws SAXException, UnsupportedSyntaxException
+	{
+		skipByteOrderMark();
+		if (startsWith("<?xml")) {
+			parseDeclaration();
+		}
+
+		skipWhitespace();
+		if (pos >= limit || buf.get(pos) != '<') {
+			throw unsupported("no root element");
+		}
+		parseStartTag();
+
+		while (!open.isEmpty()) {
+			if (pos >= limit) {
+				throw unsupported("unexpected end of input");
+			}
+			if (buf.get(pos) != '<') {
+				parseText();
+				continue;
+			}
+			if (pos + 1 >= limit) {
+				throw unsupported("unexpected end of input");
+			}
+			byte next = buf.get(pos + 1);
+			if (next == '/') {
+				parseEndTag();
+			} else if (next == '?' || next == '!') {
+				throw unsupported("markup declaration");
+			} else {
+				parseStartTag();
+			}
+		}
+
+		skipWhitespace();
+		if (pos != limit) {
+			throw unsupported("content after root element");
+		}
+	}
+
+	private void skipByteOrderMark()
+	{
+		if (limit - pos >= 3 && buf.get(pos) == (byte) 0xEF
+				&& buf.get(pos + 1) == (byte) 0xBB
+				&& buf.get(pos + 2) == (byte) 0xBF) {
+			pos += 3;
+		}
+	}
+
+	private void parseDeclaration() throws UnsupportedSyntaxException
+	{
+		pos += 5;
+		String[] expected = new String[] { "version", "encoding",
+				"standalone" };
+		int next = 0;
+		while (true) {
+			boolean whitespace = skipWhitespace();
+			if (startsWith("?>")) {
+				pos += 2;
+				break;
+			}
+			if (!whitespace) {
+				throw unsupported("malformed declaration");
+			}
+			String name = parseName();
+			while (next < expected.length && !expected[next].equals(name)) {
+				if (next == 0) {
+					throw unsupported("declaration without version");
+				}
+				next++;
+			}
+			if (next == expected.length) {
+				throw unsupported("unknown declaration attribute");
+			}
+			next++;
+			skipWhitespace();
+			expect('=');
+			skipWhitespace();
+			String value = parseAttributeValue();
+			if (name.equals("version") && !value.equals("1.0")) {
+				throw unsupported("xml version " + value);
+			} else if (name.equals("encoding")
+					&& !value.equalsIgnoreCase("UTF-8")) {
+				throw unsupported("encoding " + value);
+			} else if (name.equals("standalone") && !value.equals("yes")
+					&& !value.equals("no")) {
+				throw unsupported("standalone " + value);
+			}
+		}
+		if (next == 0) {
+			throw unsupported("declaration without version");
+		}
+	}
+
+	/**
+	 * @return the position of the '<' character of the start tag that has
+	 *         been parsed most recently.
+	 */
+	int getElementStart()
+	{
+		return elementStart;
+	}
+
+	private void parseStartTag()
+			throws SAXException, UnsupportedSyntaxException
+	{
+		elementStart = pos;
+		pos++;
+		String name = parseName();
+		if (!isElementName(name)) {
+			throw unsupported("element " + name);
+		}
+
+		attributes.clear();
+		boolean empty;
+		while (true) {
+			boolean whitespace = skipWhitespace();
+			if (pos >= limit) {
+				throw unsupported("unexpected end of input");
+			}
+			byte b = buf.get(pos);
+			if (b == '>') {
+				pos++;
+				empty = false;
+				break;
+			}
+			if (b == '/') {
+				pos++;
+				expect('>');
+				empty = true;
+				break;
+			}
+			if (!whitespace) {
+				throw unsupported("missing whitespace");
+			}
+			String attName = parseName();
+			skipWhitespace();
+			expect('=');
+			skipWhitespace();
+			String value = parseAttributeValue();
+			if (attributes.getIndex(attName) >= 0) {
+				throw unsupported("duplicate attribute " + attName);
+			}
+			attributes.addAttribute("", "", attName, "CDATA", value);
+		}
+
+		handler.startElement("", "", name, attributes);
+		if (empty) {
+			handler.endElement("", "", name);
+		} else {
+			open.push(name);
+		}
+	}
+
+	private void parseEndTag() throws SAXException, UnsupportedSyntaxException
+	{
+		pos += 2;
+		String name = parseName();
+		skipWhitespace();
+		expect('>');
+		if (!name.equals(open.pop())) {
+			throw unsupported("mismatched end tag " + name);
+		}
+		handler.endElement("", "", name);
+	}
+
+	private void parseText() throws UnsupportedSyntaxException
+	{
+		int start = pos;
+		while (pos < limit) {
+			byte b = buf.get(pos);
+			if (b == '<') {
+				break;
+			}
+			if (b == '&' || b == ']' || b < 0 || isIllegalControl(b)) {
+				throw unsupported("text content");
+			}
+			pos++;
+		}
+
+		if (buf.hasArray()) {
+			handler.bytes(buf.array(), buf.arrayOffset() + start, pos - start);
+			return;
+		}
+		if (scratch == null) {
+			scratch = new byte[CHUNK_SIZE];
+		}
+		for (int i = start; i < pos; i += CHUNK_SIZE) {
+			int n = Math.min(CHUNK_SIZE, pos - i);
+			for (int k = 0; k < n; k++) {
+				scratch[k] = buf.get(i + k);
+			}
+			handler.bytes(scratch, 0, n);
+		}
+	}
+
+	private String parseName() throws UnsupportedSyntaxException
+	{
+		int start = pos;
+		if (pos >= limit || !isNameStart(buf.get(pos))) {
+			throw unsupported("invalid name");
+		}
+		pos++;
+		while (pos < limit && isNameChar(buf.get(pos))) {
+			pos++;
+		}
+		if (pos < limit && buf.get(pos) < 0) {
+			throw unsupported("non-ASCII name");
+		}
+		int length = pos - start;
+		for (String known : KNOWN_NAMES) {
+			if (matches(known, start, length)) {
+				return known;
+			}
+		}
+		return ascii(start, length);
+	}
+
+	private String parseAttributeValue() throws UnsupportedSyntaxException
+	{
+		if (pos >= limit) {
+			throw unsupported("unexpected end of input");
+		}
+		byte quote = buf.get(pos);
+		if (quote != '"' && quote != '\'') {
+			throw unsupported("unquoted attribute value");
+		}
+		pos++;
+
+		int start = pos;
+		boolean plain = true;
+		boolean ascii = true;
+		while (true) {
+			if (pos >= limit) {
+				throw unsupported("unexpected end of input");
+			}
+			byte b = buf.get(pos);
+			if (b == quote) {
+				break;
+			}
+			if (b == '<' || b == '\r' || isIllegalControl(b)) {
+				throw unsupported("attribute value");
+			}
+			if (b < 0) {
+				ascii = false;
+			} else if (b == '&' || b == '\t' || b == '\n') {
+				plain = false;
+			}
+			pos++;
+		}
+		int length = pos - start;
+		pos++;
+
+		if (plain && ascii) {
+			return ascii(start, length);
+		}
+
+		String raw = ascii ? ascii(start, length) : utf8(start, length);
+		if (plain) {
+			return raw;
+		}
+		return normalize(raw);
+	}
+
+	private String normalize(String raw) throws UnsupportedSyntaxException
+	{
+		StringBuilder strb = new StringBuilder(raw.length());
+		int length = raw.length();
+		for (int i = 0; i < length; i++) {
+			char c = raw.charAt(i);
+			if (c == '\t' || c == '\n') {
+				strb.append(' ');
+			} else if (c != '&') {
+				strb.append(c);
+			} else {
+				int end = raw.indexOf(';', i);
+				if (end < 0) {
+					throw unsupported("unterminated reference");
+				}
+				String ref = raw.substring(i + 1, end);
+				resolveReference(strb, ref);
+				i = end;
+			}
+		}
+		return strb.toString();
+	}
+
+	private void resolveReference(StringBuilder strb, String ref)
+			throws UnsupportedSyntaxException
+	{
+		switch (ref) {
+		case "lt":
+			strb.append('<');
+			return;
+		case "gt":
+			strb.append('>');
+			return;
+		case "amp":
+			strb.append('&');
+			return;
+		case "quot":
+			strb.append('"');
+			return;
+		case "apos":
+			strb.append('\'');
+			return;
+		}
+		if (!ref.startsWith("#") || ref.length() < 2) {
+			throw unsupported("entity reference " + ref);
+		}
+		int codePoint;
+		try {
+			if (ref.charAt(1) == 'x') {
+				codePoint = Integer.parseInt(ref.substring(2), 16);
+			} else {
+				codePoint = Integer.parseInt(ref.substring(1), 10);
+			}
+		} catch (NumberFormatException e) {
+			throw unsupported("character reference " + ref);
+		}
+		if (!isXmlChar(codePoint) || ref.indexOf('-') >= 0
+				|| ref.indexOf('+') >= 0) {
+			throw unsupported("character reference " + ref);
+		}
+		strb.appendCodePoint(codePoint);
+	}
+
+	private String utf8(int start, int length)
+			throws UnsupportedSyntaxException
+	{
+		if (utf8 == null) {
+			utf8 = StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT);
+		}
+		ByteBuffer slice = buf.duplicate();
+		slice.limit(start + length);
+		slice.position(start);
+		CharBuffer chars;
+		try {
+			chars = utf8.decode(slice);
+		} catch (CharacterCodingException e) {
+			throw unsupported("malformed UTF-8");
+		}
+		for (int i = 0; i < chars.length(); i++) {
+			char c = chars.charAt(i);
+			if (c == 0xFFFE || c == 0xFFFF) {
+				throw unsupported("illegal character");
+			}
+		}
+		return chars.toString();
+	}
+
+	private String ascii(int start, int length)
+	{
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) buf.get(start + i);
+		}
+		return new String(chars);
+	}
+
+	private boolean matches(String name, int start, int length)
+	{
+		if (name.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (buf.get(start + i) != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean startsWith(String prefix)
+	{
+		if (limit - pos < prefix.length()) {
+			return false;
+		}
+		return matches(prefix, pos, prefix.length());
+	}
+
+	private boolean skipWhitespace()
+	{
+		int start = pos;
+		while (pos < limit && isWhitespace(buf.get(pos))) {
+			pos++;
+		}
+		return pos != start;
+	}
+
+	private void expect(char c) throws UnsupportedSyntaxException
+	{
+		if (pos >= limit || buf.get(pos) != c) {
+			throw unsupported("expected '" + c + "'");
+		}
+		pos++;
+	}
+
+	private static boolean isElementName(String name)
+	{
+		for (String known : ELEMENT_NAMES) {
+			if (known.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isWhitespace(byte b)
+	{
+		return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+	}
+
+	private static boolean isIllegalControl(byte b)
+	{
+		return b >= 0 && b < 0x20 && b != '\t' && b != '\n' && b != '\r';
+	}
+
+	private static boolean isNameStart(byte b)
+	{
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '_'
+				|| b == ':';
+	}
+
+	private static boolean isNameChar(byte b)
+	{
+		return isNameStart(b) || (b >= '0' && b <= '9') || b == '-'
+				|| b == '.';
+	}
+
+	private static boolean isXmlChar(int c)
+	{
+		return c == 0x9 || c == 0xA || c == 0xD || (c >= 0x20 && c <= 0xD7FF)
+				|| (c >= 0xE000 && c <= 0xFFFD)
+				|| (c >= 0x10000 && c <= 0x10FFFF);
+	}
+
+	private static UnsupportedSyntaxException unsupported(String message)
+	{
+		return new UnsupportedSyntaxException(message);
+	}
+
+}
@@ -0,0 +1,212 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.locationtech.jts.geom.GeometryFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import de.topobyte.simplemapfile.binary.SmxBinary;
+import de.topobyte.simplemapfile.core.EntityFile;
+
+/**
+ * A reader for smx files that parses the smx subset of XML directly from bytes
+ * instead of going through JAXP. Files that contain anything beyond what
+ * {@link SmxFileWriter} produces (such as comments, DOCTYPE declarations or
+ * encodings other than UTF-8) are parsed using a {@link SmxReader} instead, so
+ * that the result is always the same as the one produced by
+ * {@link SmxFileReader}.
+ * 
+ * Gzip compressed input is detected and decompressed into memory before
+ * parsing.
+ * 
+ * Instances of this class are thread-safe in the same way as {@link SmxReader}
+ * instances are.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxFastReader
+{
+
+	final static Logger logger = LoggerFactory.getLogger(SmxFastReader.class);
+
+	private SmxReader reader;
+
+	public SmxFastReader()
+	{
+		this(new GeometryFactory());
+	}
+
+	public SmxFastReader(GeometryFactory geometryFactory)
+	{
+		this(new SmxReader(geometryFactory));
+	}
+
+	/**
+	 * @param reader
+	 *            the reader to use for input that cannot be handled by the fast
+	 *            parser. Its geometry factory is used for all geometries.
+	 */
+	public SmxFastReader(SmxReader reader)
+	{
+		this.reader = reader;
+	}
+
+	public EntityFile read(String filename)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(filename, ReadMode.FULL);
+	}
+
+	public EntityFile read(Path file)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(file, ReadMode.FULL);
+	}
+
+	public EntityFile read(File file)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(file, ReadMode.FULL);
+	}
+
+	public EntityFile read(InputStream input)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(input, ReadMode.FULL);
+	}
+
+	public EntityFile read(byte[] data)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(data, ReadMode.FULL);
+	}
+
+	public EntityFile read(ByteBuffer data)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(data, ReadMode.FULL);
+	}
+
+	public EntityFile read(ReadableByteChannel channel)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(channel, ReadMode.FULL);
+	}
+
+	public EntityFile read(String filename, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(new File(filename), mode);
+	}
+
+	public EntityFile read(Path file, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		if (!Files.exists(file)) {
+			throw new FileNotFoundException();
+		}
+
+		if (!Files.isReadable(file)) {
+			throw new IOException("unable to read from specified file");
+		}
+
+		return read(Files.readAllBytes(file), mode);
+	}
+
+	public EntityFile read(File file, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(file.toPath(), mode);
+	}
+
+	public EntityFile read(InputStream input, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(Buffers.readFully(input), mode);
+	}
+
+	/**
+	 * Read an entity from the remaining content of the specified channel. File
+	 * channels are mapped into memory and parsed without copying. The channel
+	 * does not get closed.
+	 */
+	public EntityFile read(ReadableByteChannel channel, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		if (channel instanceof FileChannel) {
+			return read(Buffers.map((FileChannel) channel), mode);
+		}
+		return read(Channels.newInputStream(channel), mode);
+	}
+
+	public EntityFile read(byte[] data, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(ByteBuffer.wrap(data), mode);
+	}
+
+	/**
+	 * Read an entity from the remaining bytes of the specified buffer. The
+	 * position of the buffer is not modified.
+	 */
+	public EntityFile read(ByteBuffer data, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		if (Compression.isGzip(data)) {
+			InputStream input = new GZIPInputStream(
+					new ByteBufferInputStream(data.duplicate()));
+			return read(Buffers.readFully(input), mode);
+		}
+		if (SmxBinary.isBinary(data)) {
+			return reader.readBinary(data, mode);
+		}
+
+		SmxFileHandler handler = new SmxFileHandler(mode, reader.wkbReader(),
+				reader.twkbReader());
+		handler.setTagPool(reader.getTagPool());
+		handler.setGeometryFactory(reader.getGeometryFactory());
+		SmxFastParser parser = new SmxFastParser(data, handler);
+		try {
+			parser.parse();
+		} catch (ParsingFinishedException e) {
+			// handler is done before reaching the end of the document
+		} catch (UnsupportedSyntaxException e) {
+			logger.debug("falling back to SAX: " + e.getMessage());
+			return reader.read(new ByteBufferInputStream(data.duplicate()),
+					mode);
+		}
+		return handler.getEntity();
+	}
+
+}
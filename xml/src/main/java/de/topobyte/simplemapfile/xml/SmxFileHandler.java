@@ -17,14 +17,11 @@
 
 package de.topobyte.simplemapfile.xml;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectInputStream;
 
-import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.binary.Base64InputStream;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.io.InputStreamInStream;
 import org.locationtech.jts.io.ParseException;
 import org.locationtech.jts.io.WKBReader;
@@ -35,6 +32,8 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.core.TagPool;
+import de.topobyte.simplemapfile.core.TwkbReader;
 
 /**
  * @author Sebastian Kuerten (sebastian@topobyte.de)
@@ -44,16 +43,97 @@ public class SmxFileHandler extends DefaultHandler
 
 	final static Logger logger = LoggerFactory.getLogger(SmxFileHandler.class);
 
+	private ReadMode mode;
+	private WKBReader wkbReader;
+	private TwkbReader twkbReader;
 	private EntityFile entityFile = new EntityFile();
+	private TagPool tagPool = null;
+	private GeometryFactory geometryFactory = null;
+
+	public SmxFileHandler()
+	{
+		this(ReadMode.FULL);
+	}
+
+	public SmxFileHandler(ReadMode mode)
+	{
+		this(mode, new WKBReader());
+	}
+
+	/**
+	 * @param wkbReader
+	 *            the reader to decode WKB geometries with. This handler does
+	 *            not synchronize access to it.
+	 */
+	public SmxFileHandler(ReadMode mode, WKBReader wkbReader)
+	{
+		this(mode, wkbReader, new TwkbReader());
+	}
+
+	/**
+	 * @param wkbReader
+	 *            the reader to decode WKB geometries with.
+	 * @param twkbReader
+	 *            the reader to decode TWKB geometries with. This handler does
+	 *            not synchronize access to either of the readers.
+	 */
+	public SmxFileHandler(ReadMode mode, WKBReader wkbReader,
+			TwkbReader twkbReader)
+	{
+		this.mode = mode;
+		this.wkbReader = wkbReader;
+		this.twkbReader = twkbReader;
+	}
+
+	public TagPool getTagPool()
+	{
+		return tagPool;
+	}
+
+	/**
+	 * Set a pool to share the strings of tag keys and values with other
+	 * entities. By default, no pool is used.
+	 */
+	public void setTagPool(TagPool tagPool)
+	{
+		this.tagPool = tagPool;
+	}
+
+	public GeometryFactory getGeometryFactory()
+	{
+		return geometryFactory;
+	}
+
+	/**
+	 * Set the factory that WKB kept raw in {@link ReadMode#LAZY_GEOMETRY}
+	 * mode gets decoded with later on. Geometries decoded right away use the
+	 * factory of the WKB reader. Deserialized JSG geometries come with their
+	 * own factory and get rebuilt using this one if it is set. By default, a
+	 * default factory is used.
+	 */
+	public void setGeometryFactory(GeometryFactory geometryFactory)
+	{
+		this.geometryFactory = geometryFactory;
+	}
 
 	public EntityFile getEntity()
 	{
 		return entityFile;
 	}
 
+	/**
+	 * @return the type of the geometry element once it has been reached, also
+	 *         in {@link ReadMode#TAGS_ONLY} mode. Null if there is no geometry
+	 *         or its type is unknown.
+	 */
+	public GeometryType getGeometryType()
+	{
+		return geometryType;
+	}
+
 	private GeometryType geometryType;
 	private boolean gatherBase64 = false;
-	private StringBuilder strb;
+	private Base64Decoder decoder;
 
 	@Override
 	public void startElement(String uri, String localName, String qName,
@@ -65,12 +145,20 @@ public class SmxFileHandler extends DefaultHandler
 		} else if (qName.equals("tag")) {
 			String valK = attributes.getValue("k");
 			String valV = attributes.getValue("v");
+			if (tagPool != null) {
+				valK = tagPool.key(valK);
+				valV = tagPool.value(valV);
+			}
 			entityFile.addTag(valK, valV);
 		} else if (qName.equals("geometry")) {
+			entityFile.trimTags();
 			String valType = attributes.getValue("type");
 			GeometryType type = GeometryType.switcher.get(valType);
 			geometryType = type;
-			strb = new StringBuilder();
+			if (mode == ReadMode.TAGS_ONLY) {
+				throw new ParsingFinishedException();
+			}
+			decoder = new Base64Decoder();
 			if (type != null) {
 				switch (type) {
 				case WKB_BASE64:
@@ -79,6 +167,9 @@ public class SmxFileHandler extends DefaultHandler
 				case JSG_BASE64:
 					gatherBase64 = true;
 					break;
+				case TWKB_BASE64:
+					gatherBase64 = true;
+					break;
 				}
 			}
 		} else {
@@ -91,13 +182,18 @@ public class SmxFileHandler extends DefaultHandler
 			throws SAXException
 	{
 		if (qName.equals("geometry")) {
+			gatherBase64 = false;
+			if (decoder != null) {
+				decoder.finish();
+			}
 			if (geometryType == GeometryType.WKB_BASE64) {
-				String base64 = strb.toString();
-				byte[] bytes = Base64.decodeBase64(base64);
-				WKBReader wkbReader = new WKBReader();
+				if (mode == ReadMode.LAZY_GEOMETRY) {
+					entityFile.setWkb(decoder.toByteArray(), geometryFactory);
+					return;
+				}
 				try {
-					Geometry geometry = wkbReader.read(new InputStreamInStream(
-							new ByteArrayInputStream(bytes)));
+					Geometry geometry = wkbReader.read(
+							new InputStreamInStream(decoder.toInputStream()));
 					entityFile.setGeometry(geometry);
 				} catch (IOException e) {
 					logger.warn("unable to read wkb, IOException: "
@@ -109,12 +205,26 @@ public class SmxFileHandler extends DefaultHandler
 					logger.warn("unable to read wkb, IllegalArgumentException: "
 							+ e.getMessage());
 				}
+			} else if (geometryType == GeometryType.TWKB_BASE64) {
+				try {
+					Geometry geometry = twkbReader.read(decoder.getBuffer(), 0,
+							decoder.getLength());
+					entityFile.setGeometry(geometry);
+				} catch (ParseException e) {
+					logger.warn("unable to read twkb, ParseException: "
+							+ e.getMessage());
+				} catch (IllegalArgumentException e) {
+					logger.warn(
+							"unable to read twkb, IllegalArgumentException: "
+									+ e.getMessage());
+				}
 			} else if (geometryType == GeometryType.JSG_BASE64) {
-				String base64 = strb.toString();
-				InputStream is = new ByteArrayInputStream(base64.getBytes());
-				Base64InputStream base64is = new Base64InputStream(is);
-				try (ObjectInputStream ois = new ObjectInputStream(base64is)) {
+				try (ObjectInputStream ois = new ObjectInputStream(
+						decoder.toInputStream())) {
 					Geometry geometry = (Geometry) ois.readObject();
+					if (geometryFactory != null) {
+						geometry = geometryFactory.createGeometry(geometry);
+					}
 					entityFile.setGeometry(geometry);
 				} catch (IOException e) {
 					logger.warn("unable to read jsg, IOException: "
@@ -131,7 +241,18 @@ public class SmxFileHandler extends DefaultHandler
 	public void characters(char[] ch, int start, int length) throws SAXException
 	{
 		if (gatherBase64) {
-			strb.append(ch, start, length);
+			decoder.decode(ch, start, length);
+		}
+	}
+
+	/**
+	 * Equivalent of {@link #characters(char[], int, int)} for ASCII text that
+	 * is available as bytes.
+	 */
+	void bytes(byte[] b, int start, int length)
+	{
+		if (gatherBase64) {
+			decoder.decode(b, start, length);
 		}
 	}
 
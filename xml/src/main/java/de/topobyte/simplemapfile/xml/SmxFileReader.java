@@ -18,79 +18,177 @@
 package de.topobyte.simplemapfile.xml;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.SAXException;
 
 import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.core.GeometryStats;
 
 /**
+ * Static convenience methods for reading smx files. All methods delegate to a
+ * shared {@link SmxReader} instance, except for those reading from memory or
+ * channels, which use a shared {@link SmxFastReader} that parses buffers in
+ * place. Files in the binary smx format are detected and read as well.
+ * 
  * @author Sebastian Kuerten (sebastian@topobyte.de)
  */
 public class SmxFileReader
 {
 
+	private static SmxReader reader = new SmxReader();
+	private static SmxFastReader fastReader = new SmxFastReader(reader);
+
 	public static EntityFile read(String filename)
 			throws ParserConfigurationException, SAXException, IOException
 	{
-		File file = new File(filename);
-		return read(file);
+		return reader.read(filename);
 	}
 
 	public static EntityFile read(Path file)
 			throws ParserConfigurationException, SAXException, IOException
 	{
-		if (!Files.exists(file)) {
-			throw new FileNotFoundException();
-		}
-
-		if (!Files.isReadable(file)) {
-			throw new IOException("unable to read from specified file");
-		}
-
-		try (InputStream input = Files.newInputStream(file)) {
-			return read(input);
-		}
+		return reader.read(file);
 	}
 
 	public static EntityFile read(File file)
 			throws ParserConfigurationException, SAXException, IOException
 	{
-		SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
-		SmxFileHandler handler = new SmxFileHandler();
+		return reader.read(file);
+	}
 
-		if (!file.exists()) {
-			throw new FileNotFoundException();
-		}
+	public static EntityFile read(InputStream input)
+			throws SAXException, IOException, ParserConfigurationException
+	{
+		return reader.read(input);
+	}
 
-		if (!file.canRead()) {
-			throw new IOException("unable to read from specified file");
-		}
+	public static EntityFile read(String filename, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return reader.read(filename, mode);
+	}
 
-		if (file.exists() && file.canRead()) {
-			parser.parse(file, handler);
-		}
+	public static EntityFile read(Path file, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return reader.read(file, mode);
+	}
 
-		return handler.getEntity();
+	public static EntityFile read(File file, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return reader.read(file, mode);
 	}
 
-	public static EntityFile read(InputStream input)
+	public static EntityFile read(InputStream input, ReadMode mode)
 			throws SAXException, IOException, ParserConfigurationException
 	{
-		SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
-		SmxFileHandler handler = new SmxFileHandler();
+		return reader.read(input, mode);
+	}
 
-		parser.parse(input, handler);
+	public static EntityFile read(byte[] data)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return fastReader.read(data);
+	}
 
-		return handler.getEntity();
+	public static EntityFile read(ByteBuffer data)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return fastReader.read(data);
+	}
+
+	/**
+	 * @see SmxFastReader#read(ReadableByteChannel, ReadMode)
+	 */
+	public static EntityFile read(ReadableByteChannel channel)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return fastReader.read(channel);
+	}
+
+	public static EntityFile read(byte[] data, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return fastReader.read(data, mode);
+	}
+
+	/**
+	 * @see SmxFastReader#read(ByteBuffer, ReadMode)
+	 */
+	public static EntityFile read(ByteBuffer data, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return fastReader.read(data, mode);
+	}
+
+	/**
+	 * @see SmxFastReader#read(ReadableByteChannel, ReadMode)
+	 */
+	public static EntityFile read(ReadableByteChannel channel, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return fastReader.read(channel, mode);
+	}
+
+	public static CompletableFuture<EntityFile> readAsync(Path file,
+			Executor executor)
+	{
+		return reader.readAsync(file, executor);
+	}
+
+	/**
+	 * @see SmxReader#readAsync(Path, ReadMode, Executor)
+	 */
+	public static CompletableFuture<EntityFile> readAsync(Path file,
+			ReadMode mode, Executor executor)
+	{
+		return reader.readAsync(file, mode, executor);
+	}
+
+	/**
+	 * @see SmxReader#readEnvelope(String)
+	 */
+	public static GeometryStats readEnvelope(String filename)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return reader.readEnvelope(filename);
+	}
+
+	/**
+	 * @see SmxReader#readEnvelope(String)
+	 */
+	public static GeometryStats readEnvelope(Path file)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return reader.readEnvelope(file);
+	}
+
+	/**
+	 * @see SmxReader#readEnvelope(String)
+	 */
+	public static GeometryStats readEnvelope(File file)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return reader.readEnvelope(file);
+	}
+
+	/**
+	 * @see SmxReader#readEnvelope(String)
+	 */
+	public static GeometryStats readEnvelope(InputStream input)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return reader.readEnvelope(input);
 	}
 
 }
@@ -18,164 +18,117 @@
 package de.topobyte.simplemapfile.xml;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.sax.SAXTransformerFactory;
-import javax.xml.transform.sax.TransformerHandler;
-import javax.xml.transform.stream.StreamResult;
-
-import org.apache.commons.codec.binary.Base64;
-import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.io.WKBWriter;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
+import de.topobyte.simplemapfile.core.AtomicFile;
+import de.topobyte.simplemapfile.core.AtomicFileBatch;
 import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.core.WriteMode;
 
 /**
+ * Static convenience methods for writing smx files. All methods delegate to a
+ * shared {@link SmxWriter} instance. When writing to a file whose name ends
+ * with '.gz', the output gets gzip compressed. Such files are detected
+ * transparently by the readers.
+ * 
  * @author Sebastian Kuerten (sebastian@topobyte.de)
  */
 public class SmxFileWriter
 {
 
-	private static int INDENT = 8;
-	private static int LINE_WIDTH = 76;
+	private static SmxWriter writer = new SmxWriter();
+	private static SmxWriter atomicWriter = null;
+	private static SmxWriter atomicSyncWriter = null;
 
-	private static String INDENT_AMOUNT = String.format("%d", INDENT);
-	private static String INDENT_STRING;
-	static {
-		StringBuilder builder = new StringBuilder();
-		for (int i = 0; i < INDENT; i++) {
-			builder.append(" ");
+	private static synchronized SmxWriter atomicWriter(boolean sync)
+	{
+		if (sync) {
+			if (atomicSyncWriter == null) {
+				atomicSyncWriter = new SmxWriter();
+				atomicSyncWriter.setWriteMode(WriteMode.ATOMIC_SYNC);
+			}
+			return atomicSyncWriter;
 		}
-		INDENT_STRING = builder.toString();
+		if (atomicWriter == null) {
+			atomicWriter = new SmxWriter();
+			atomicWriter.setWriteMode(WriteMode.ATOMIC);
+		}
+		return atomicWriter;
 	}
 
 	public static void write(EntityFile entityFile, String filename)
 			throws TransformerException, ParserConfigurationException,
 			IOException
 	{
-		write(entityFile, Paths.get(filename));
+		writer.write(entityFile, filename);
 	}
 
 	public static void write(EntityFile entityFile, Path file)
 			throws TransformerException, ParserConfigurationException,
 			IOException
 	{
-		OutputStream fos = Files.newOutputStream(file);
-		StreamResult streamResult = new StreamResult(fos);
-		write(entityFile, streamResult);
-		fos.close();
+		writer.write(entityFile, file);
 	}
 
 	public static void write(EntityFile entityFile, File file)
 			throws TransformerException, ParserConfigurationException,
 			IOException
 	{
-		FileOutputStream fos = new FileOutputStream(file);
-		StreamResult streamResult = new StreamResult(fos);
-		write(entityFile, streamResult);
-		fos.close();
+		writer.write(entityFile, file);
 	}
 
-	public static void write(EntityFile entityFile, OutputStream output)
-			throws TransformerException, ParserConfigurationException
+	/**
+	 * Write the entity to a temporary file and rename it to the specified
+	 * file, so that the file is never observed partially written.
+	 * 
+	 * @param sync
+	 *            whether to force the file and its directory to disk.
+	 * @see AtomicFile
+	 */
+	public static void writeAtomic(EntityFile entityFile, Path file,
+			boolean sync) throws IOException
 	{
-		StreamResult streamResult = new StreamResult(output);
-		write(entityFile, streamResult);
+		atomicWriter(sync).write(entityFile, file);
 	}
 
-	private static void write(EntityFile entityFile, StreamResult streamResult)
-			throws TransformerException, ParserConfigurationException
+	/**
+	 * @see SmxWriter#write(EntityFile, Path, AtomicFileBatch)
+	 */
+	public static void write(EntityFile entityFile, Path file,
+			AtomicFileBatch batch) throws IOException
 	{
-		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder builder = factory.newDocumentBuilder();
-		Document document = builder.newDocument();
-
-		createDocument(document, entityFile);
-
-		SAXTransformerFactory saxFactory = (SAXTransformerFactory) TransformerFactory
-				.newInstance();
-		TransformerHandler handler = saxFactory.newTransformerHandler();
-		Transformer serializer = handler.getTransformer();
-		serializer.setOutputProperty(OutputKeys.INDENT, "yes");
-		serializer.setOutputProperty(
-				"{http://xml.apache.org/xslt}indent-amount", INDENT_AMOUNT);
-
-		handler.setResult(streamResult);
-
-		DOMSource domSource = new DOMSource(document.getDocumentElement());
-		serializer.transform(domSource, streamResult);
+		writer.write(entityFile, file, batch);
 	}
 
-	private static void createDocument(Document document, EntityFile entityFile)
+	/**
+	 * Write the entity to the specified stream. I/O errors are reported as a
+	 * {@link TransformerException} for compatibility with the DOM based
+	 * implementation this method used to have.
+	 */
+	public static void write(EntityFile entityFile, OutputStream output)
+			throws TransformerException, ParserConfigurationException
 	{
-		Element entity = document.createElement("entity");
-		document.appendChild(entity);
-
-		// add tags
-
-		Map<String, String> tags = entityFile.getTags();
-		for (String key : tags.keySet()) {
-			String value = tags.get(key);
-			Element tag = document.createElement("tag");
-			entity.appendChild(tag);
-			tag.setAttribute("k", key);
-			tag.setAttribute("v", value);
+		try {
+			writer.write(entityFile, output);
+		} catch (IOException e) {
+			throw new TransformerException(e);
 		}
-
-		// add geometry
-
-		Element geometry = document.createElement("geometry");
-		entity.appendChild(geometry);
-		geometry.setAttribute("type", "wkb-base64");
-
-		Geometry geom = entityFile.getGeometry();
-		String base64 = createTextRepresentation(geom);
-		String formatted = format(base64);
-		geometry.setTextContent(formatted);
 	}
 
-	private static String createTextRepresentation(Geometry geom)
+	/**
+	 * @see SmxWriter#writeAsync(EntityFile, Path, Executor)
+	 */
+	public static CompletableFuture<Void> writeAsync(EntityFile entityFile,
+			Path file, Executor executor)
 	{
-		WKBWriter wkbWriter = new WKBWriter();
-		byte[] bytes = wkbWriter.write(geom);
-		String base64String = Base64.encodeBase64String(bytes);
-		return base64String;
-	}
-
-	private static String format(String text)
-	{
-		StringBuilder strb = new StringBuilder();
-		String newLine = System.getProperty("line.separator");
-		int length = text.length();
-		int size = LINE_WIDTH;
-		strb.append(newLine);
-		for (int i = 0; i < length; i += size) {
-			int end = i + size;
-			if (end >= length) {
-				end = length;
-			}
-			String line = text.substring(i, end);
-			strb.append(line);
-			strb.append(newLine);
-		}
-		strb.append(INDENT_STRING);
-		return strb.toString();
+		return writer.writeAsync(entityFile, file, executor);
 	}
 
 }
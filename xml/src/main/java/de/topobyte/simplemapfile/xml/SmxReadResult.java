@@ -0,0 +1,71 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+import java.nio.file.Path;
+
+import de.topobyte.simplemapfile.core.EntityFile;
+
+/**
+ * The outcome of reading a single file with {@link SmxDirectoryReader}: either
+ * the entity or the exception that occurred while reading it.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxReadResult
+{
+
+	private Path file;
+	private EntityFile entity;
+	private Exception error;
+
+	public SmxReadResult(Path file, EntityFile entity, Exception error)
+	{
+		this.file = file;
+		this.entity = entity;
+		this.error = error;
+	}
+
+	public Path getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * @return the entity read or null if reading failed.
+	 */
+	public EntityFile getEntity()
+	{
+		return entity;
+	}
+
+	/**
+	 * @return the exception that occurred while reading or null if reading
+	 *         succeeded.
+	 */
+	public Exception getError()
+	{
+		return error;
+	}
+
+	public boolean isSuccess()
+	{
+		return error == null;
+	}
+
+}
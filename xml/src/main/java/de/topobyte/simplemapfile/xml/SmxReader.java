@@ -0,0 +1,413 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import de.topobyte.simplemapfile.binary.SmxBinary;
+import de.topobyte.simplemapfile.binary.SmxBinaryReader;
+import de.topobyte.simplemapfile.core.CoordinateStorage;
+import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.core.GeometryStats;
+import de.topobyte.simplemapfile.core.TagPool;
+import de.topobyte.simplemapfile.core.TwkbReader;
+
+/**
+ * A reusable reader for smx files. Input in the binary smx format is detected
+ * by its magic bytes and read using a {@link SmxBinaryReader}.
+ * 
+ * Instances of this class are thread-safe. Each thread that uses an instance
+ * gets its own {@link SAXParser} and {@link WKBReader}, which are created on
+ * first use and then reused for all following reads of that thread. This way a
+ * single instance can be shared across worker threads without paying the setup
+ * cost of parsers and decoders for each file. All geometries are created using
+ * the {@link GeometryFactory} specified at construction time, which is shared
+ * between threads. This includes geometries read in
+ * {@link ReadMode#LAZY_GEOMETRY} mode, which get decoded on first access.
+ * 
+ * To store decoded coordinates in flat arrays instead of one object per
+ * vertex, pass a factory created with
+ * {@link CoordinateStorage#createGeometryFactory()}.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxReader
+{
+
+	final static Logger logger = LoggerFactory.getLogger(SmxReader.class);
+
+	private GeometryFactory geometryFactory;
+	private SmxBinaryReader binaryReader;
+
+	private SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+	private ThreadLocal<SAXParser> parsers = new ThreadLocal<>();
+	private ThreadLocal<WKBReader> wkbReaders = new ThreadLocal<>();
+	private ThreadLocal<TwkbReader> twkbReaders = new ThreadLocal<>();
+
+	public SmxReader()
+	{
+		this(new GeometryFactory());
+	}
+
+	public SmxReader(GeometryFactory geometryFactory)
+	{
+		this.geometryFactory = geometryFactory;
+		binaryReader = new SmxBinaryReader(geometryFactory);
+	}
+
+	public GeometryFactory getGeometryFactory()
+	{
+		return geometryFactory;
+	}
+
+	public TagPool getTagPool()
+	{
+		return binaryReader.getTagPool();
+	}
+
+	/**
+	 * Set a pool to share the strings of tag keys and values between the
+	 * entities read. Useful when keeping many entities in memory. By default,
+	 * no pool is used.
+	 */
+	public void setTagPool(TagPool tagPool)
+	{
+		binaryReader.setTagPool(tagPool);
+	}
+
+	public EntityFile read(String filename)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(filename, ReadMode.FULL);
+	}
+
+	public EntityFile read(Path file)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(file, ReadMode.FULL);
+	}
+
+	public EntityFile read(File file)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(file, ReadMode.FULL);
+	}
+
+	public EntityFile read(InputStream input)
+			throws SAXException, IOException, ParserConfigurationException
+	{
+		return read(input, ReadMode.FULL);
+	}
+
+	public EntityFile read(byte[] data)
+			throws SAXException, IOException, ParserConfigurationException
+	{
+		return read(data, ReadMode.FULL);
+	}
+
+	public EntityFile read(ByteBuffer data)
+			throws SAXException, IOException, ParserConfigurationException
+	{
+		return read(data, ReadMode.FULL);
+	}
+
+	public EntityFile read(ReadableByteChannel channel)
+			throws SAXException, IOException, ParserConfigurationException
+	{
+		return read(channel, ReadMode.FULL);
+	}
+
+	public EntityFile read(String filename, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		File file = new File(filename);
+		return read(file, mode);
+	}
+
+	public EntityFile read(Path file, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		if (!Files.exists(file)) {
+			throw new FileNotFoundException();
+		}
+
+		if (!Files.isReadable(file)) {
+			throw new IOException("unable to read from specified file");
+		}
+
+		try (InputStream input = Files.newInputStream(file)) {
+			return read(input, mode);
+		}
+	}
+
+	public EntityFile read(File file, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return read(file.toPath(), mode);
+	}
+
+	/**
+	 * Read an entity from the specified stream, which may contain gzip
+	 * compressed data and either XML or the binary format.
+	 */
+	public EntityFile read(InputStream input, ReadMode mode)
+			throws SAXException, IOException, ParserConfigurationException
+	{
+		input = Buffers.markable(Compression.decompress(input));
+		byte[] head = Buffers.peek(input, SmxBinary.MAGIC_LENGTH);
+		if (SmxBinary.isBinary(head, head.length)) {
+			return readBinary(ByteBuffer.wrap(Buffers.readFully(input)), mode);
+		}
+
+		return parse(input, mode).getEntity();
+	}
+
+	/**
+	 * Determine how the geometry of the specified file is encoded, without
+	 * reading beyond the start of the geometry element.
+	 * 
+	 * @return the type of the geometry or null if the file is in the binary
+	 *         format, does not have a geometry or uses an unknown type.
+	 */
+	public GeometryType readGeometryType(Path file)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		try (InputStream input = Buffers.markable(
+				Compression.decompress(Files.newInputStream(file)))) {
+			byte[] head = Buffers.peek(input, SmxBinary.MAGIC_LENGTH);
+			if (SmxBinary.isBinary(head, head.length)) {
+				return null;
+			}
+			return parse(input, ReadMode.TAGS_ONLY).getGeometryType();
+		}
+	}
+
+	private SmxFileHandler parse(InputStream input, ReadMode mode)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		SAXParser parser = parser();
+		SmxFileHandler handler = new SmxFileHandler(mode, wkbReader(),
+				twkbReader());
+		handler.setTagPool(getTagPool());
+		handler.setGeometryFactory(geometryFactory);
+
+		try {
+			parser.parse(input, handler);
+		} catch (ParsingFinishedException e) {
+			// handler is done before reaching the end of the document
+		} finally {
+			parser.reset();
+		}
+
+		return handler;
+	}
+
+	public EntityFile read(byte[] data, ReadMode mode)
+			throws SAXException, IOException, ParserConfigurationException
+	{
+		return read(ByteBuffer.wrap(data), mode);
+	}
+
+	/**
+	 * Read an entity from the remaining bytes of the specified buffer. The
+	 * position of the buffer is not modified.
+	 */
+	public EntityFile read(ByteBuffer data, ReadMode mode)
+			throws SAXException, IOException, ParserConfigurationException
+	{
+		if (SmxBinary.isBinary(data)) {
+			return readBinary(data, mode);
+		}
+		return read(new ByteBufferInputStream(data.duplicate()), mode);
+	}
+
+	/**
+	 * Read an entity from the remaining content of the specified channel. File
+	 * channels are mapped into memory. The channel does not get closed.
+	 */
+	public EntityFile read(ReadableByteChannel channel, ReadMode mode)
+			throws SAXException, IOException, ParserConfigurationException
+	{
+		if (channel instanceof FileChannel) {
+			return read(Buffers.map((FileChannel) channel), mode);
+		}
+		return read(Channels.newInputStream(channel), mode);
+	}
+
+	public CompletableFuture<EntityFile> readAsync(Path file,
+			Executor executor)
+	{
+		return readAsync(file, ReadMode.FULL, executor);
+	}
+
+	/**
+	 * Read the specified file on the given executor. Exceptions thrown while
+	 * reading complete the returned future exceptionally, wrapped in a
+	 * {@link CompletionException}.
+	 */
+	public CompletableFuture<EntityFile> readAsync(Path file, ReadMode mode,
+			Executor executor)
+	{
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return read(file, mode);
+			} catch (ParserConfigurationException | SAXException
+					| IOException e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Determine the bounding box and number of vertices of the geometry stored
+	 * in the specified file. WKB geometries are scanned without building a
+	 * {@link Geometry}.
+	 * 
+	 * @return the statistics of the file's geometry or null if the file does
+	 *         not contain a geometry.
+	 */
+	public GeometryStats readEnvelope(String filename)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return stats(read(filename, ReadMode.LAZY_GEOMETRY));
+	}
+
+	/**
+	 * @see #readEnvelope(String)
+	 */
+	public GeometryStats readEnvelope(Path file)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return stats(read(file, ReadMode.LAZY_GEOMETRY));
+	}
+
+	/**
+	 * @see #readEnvelope(String)
+	 */
+	public GeometryStats readEnvelope(File file)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return stats(read(file, ReadMode.LAZY_GEOMETRY));
+	}
+
+	/**
+	 * @see #readEnvelope(String)
+	 */
+	public GeometryStats readEnvelope(InputStream input)
+			throws ParserConfigurationException, SAXException, IOException
+	{
+		return stats(read(input, ReadMode.LAZY_GEOMETRY));
+	}
+
+	private static GeometryStats stats(EntityFile entity) throws IOException
+	{
+		try {
+			return GeometryStats.of(entity);
+		} catch (ParseException e) {
+			throw new IOException(
+					"unable to read wkb, ParseException: " + e.getMessage(), e);
+		}
+	}
+
+	private SAXParser parser()
+			throws ParserConfigurationException, SAXException
+	{
+		SAXParser parser = parsers.get();
+		if (parser == null) {
+			// factories are not guaranteed to be thread-safe
+			synchronized (parserFactory) {
+				parser = parserFactory.newSAXParser();
+			}
+			parsers.set(parser);
+		}
+		return parser;
+	}
+
+	/**
+	 * Read an entity in the binary format from the remaining bytes of the
+	 * specified buffer. In {@link ReadMode#FULL} mode, WKB is decoded right
+	 * away using this reader's {@link GeometryFactory}.
+	 */
+	EntityFile readBinary(ByteBuffer data, ReadMode mode) throws IOException
+	{
+		if (mode == ReadMode.TAGS_ONLY) {
+			return binaryReader.readTags(data);
+		}
+		EntityFile entityFile = binaryReader.read(data);
+		byte[] wkb = entityFile.getWkb();
+		if (mode == ReadMode.FULL && wkb != null) {
+			Geometry geometry = null;
+			try {
+				geometry = wkbReader().read(wkb);
+			} catch (ParseException e) {
+				logger.warn("unable to read wkb, ParseException: "
+						+ e.getMessage());
+			} catch (IllegalArgumentException e) {
+				logger.warn("unable to read wkb, IllegalArgumentException: "
+						+ e.getMessage());
+			}
+			entityFile.setGeometry(geometry);
+		}
+		return entityFile;
+	}
+
+	WKBReader wkbReader()
+	{
+		WKBReader wkbReader = wkbReaders.get();
+		if (wkbReader == null) {
+			wkbReader = new WKBReader(geometryFactory);
+			wkbReaders.set(wkbReader);
+		}
+		return wkbReader;
+	}
+
+	TwkbReader twkbReader()
+	{
+		TwkbReader twkbReader = twkbReaders.get();
+		if (twkbReader == null) {
+			twkbReader = new TwkbReader(geometryFactory);
+			twkbReaders.set(twkbReader);
+		}
+		return twkbReader;
+	}
+
+}
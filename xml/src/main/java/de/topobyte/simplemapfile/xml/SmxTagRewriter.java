@@ -0,0 +1,313 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import de.topobyte.simplemapfile.binary.SmxBinary;
+import de.topobyte.simplemapfile.binary.SmxBinaryReader;
+import de.topobyte.simplemapfile.binary.SmxBinaryWriter;
+import de.topobyte.simplemapfile.core.AtomicFile;
+import de.topobyte.simplemapfile.core.AtomicFileBatch;
+import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.core.WriteMode;
+
+/**
+ * Edits the tags of smx files without touching their geometry. Only the tags
+ * get parsed and rewritten, the geometry element is copied byte by byte, so
+ * that the cost of an edit does not depend on the size of the geometry.
+ * 
+ * Files in the binary format are edited the same way. Files that use XML
+ * features beyond what {@link SmxWriter} produces, or do not have a geometry,
+ * are read and written completely instead; files without a geometry are
+ * written without a geometry element. Gzip compressed input is supported and
+ * output gets compressed if the output file name ends with '.gz'.
+ * 
+ * Instances of this class are thread-safe.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxTagRewriter
+{
+
+	final static Logger logger = LoggerFactory.getLogger(SmxTagRewriter.class);
+
+	private static final byte[] GEOMETRY_END = "</geometry>"
+			.getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] ENTITY_END = "</entity>"
+			.getBytes(StandardCharsets.US_ASCII);
+
+	private SmxReader reader;
+	private SmxWriter writer;
+	private SmxBinaryReader binaryReader = new SmxBinaryReader();
+	private SmxBinaryWriter binaryWriter = new SmxBinaryWriter();
+
+	public SmxTagRewriter()
+	{
+		this(new SmxReader(), new SmxWriter());
+	}
+
+	/**
+	 * @param reader
+	 *            the reader to use for files that cannot be edited in place.
+	 * @param writer
+	 *            the writer to use for the tags and for files that cannot be
+	 *            edited in place.
+	 */
+	public SmxTagRewriter(SmxReader reader, SmxWriter writer)
+	{
+		this.reader = reader;
+		this.writer = writer;
+	}
+
+	/**
+	 * Edit the tags of a file and replace the file with the result.
+	 */
+	public void rewrite(Path file, Consumer<Map<String, String>> edit)
+			throws IOException, ParserConfigurationException, SAXException
+	{
+		rewrite(file, file, edit);
+	}
+
+	/**
+	 * Edit the tags of the input file and write the result to the output file.
+	 * Input and output may denote the same file. The output is written to a
+	 * temporary file first, which then replaces the output file. The output
+	 * gets synced to disk if the writer's write mode is
+	 * {@link WriteMode#ATOMIC_SYNC}.
+	 * 
+	 * @param edit
+	 *            a function that modifies the tags passed to it.
+	 */
+	public void rewrite(Path input, Path output,
+			Consumer<Map<String, String>> edit)
+			throws IOException, ParserConfigurationException, SAXException
+	{
+		boolean sync = writer.getWriteMode() == WriteMode.ATOMIC_SYNC;
+		try {
+			AtomicFile.write(output, out -> rewrite(input, output, out, edit),
+					sync);
+		} catch (WrappedException e) {
+			e.rethrow();
+		}
+	}
+
+	/**
+	 * Edit the tags of the input file and write the result to the output file
+	 * as part of the batch. The output file gets replaced once the batch is
+	 * committed.
+	 */
+	public void rewrite(Path input, Path output,
+			Consumer<Map<String, String>> edit, AtomicFileBatch batch)
+			throws IOException, ParserConfigurationException, SAXException
+	{
+		try {
+			batch.write(output, out -> rewrite(input, output, out, edit));
+		} catch (WrappedException e) {
+			e.rethrow();
+		}
+	}
+
+	private void rewrite(Path input, Path output, OutputStream out,
+			Consumer<Map<String, String>> edit) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(input,
+				StandardOpenOption.READ);
+				OutputStream compressed = Compression.compress(out,
+						output.toString())) {
+			rewrite(Buffers.map(channel), compressed, edit);
+		} catch (ParserConfigurationException | SAXException e) {
+			throw new WrappedException(e);
+		}
+	}
+
+	/**
+	 * Carries checked exceptions through {@link AtomicFile.Content}.
+	 */
+	private static class WrappedException extends IOException
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		WrappedException(Exception cause)
+		{
+			super(cause);
+		}
+
+		void rethrow() throws ParserConfigurationException, SAXException
+		{
+			Throwable cause = getCause();
+			if (cause instanceof ParserConfigurationException) {
+				throw (ParserConfigurationException) cause;
+			}
+			throw (SAXException) cause;
+		}
+
+	}
+
+	/**
+	 * Edit the tags of the entity stored in the remaining bytes of the buffer
+	 * and write the result to the specified stream. The position of the buffer
+	 * is not modified. The stream gets flushed but not closed.
+	 */
+	public void rewrite(ByteBuffer data, OutputStream output,
+			Consumer<Map<String, String>> edit)
+			throws IOException, ParserConfigurationException, SAXException
+	{
+		if (Compression.isGzip(data)) {
+			InputStream input = new GZIPInputStream(
+					new ByteBufferInputStream(data.duplicate()));
+			data = ByteBuffer.wrap(Buffers.readFully(input));
+		}
+
+		if (SmxBinary.isBinary(data)) {
+			Map<String, String> tags = binaryReader.readTags(data).getTags();
+			edit.accept(tags);
+			binaryWriter.writeWithTags(data, tags, output);
+			return;
+		}
+
+		SmxFileHandler handler = new SmxFileHandler(ReadMode.TAGS_ONLY);
+		SmxFastParser parser = new SmxFastParser(data, handler);
+		int geometryStart = -1;
+		try {
+			parser.parse();
+		} catch (ParsingFinishedException e) {
+			geometryStart = parser.getElementStart();
+		} catch (UnsupportedSyntaxException e) {
+			logger.debug("unable to edit in place: " + e.getMessage());
+		}
+
+		if (geometryStart < 0 || !isGeometryAtEnd(data, geometryStart)) {
+			EntityFile entity = reader.read(data, ReadMode.LAZY_GEOMETRY);
+			if (geometryStart >= 0 && !isEmpty(entity)
+					&& !writer.writesGeometry(entity)) {
+				// writing the entity would drop the geometry
+				throw new IOException("unable to read the geometry");
+			}
+			edit.accept(entity.getTags());
+			writer.write(entity, output);
+			return;
+		}
+
+		Map<String, String> tags = handler.getEntity().getTags();
+		edit.accept(tags);
+
+		Writer head = new BufferedWriter(
+				new OutputStreamWriter(output, StandardCharsets.UTF_8));
+		writer.writeHead(head, tags);
+		head.write(SmxWriter.INDENT_STRING);
+		head.flush();
+
+		ByteBuffer geometry = data.duplicate();
+		geometry.position(geometryStart);
+		if (geometry.hasArray()) {
+			output.write(geometry.array(),
+					geometry.arrayOffset() + geometry.position(),
+					geometry.remaining());
+		} else {
+			byte[] buffer = new byte[8192];
+			while (geometry.hasRemaining()) {
+				int n = Math.min(buffer.length, geometry.remaining());
+				geometry.get(buffer, 0, n);
+				output.write(buffer, 0, n);
+			}
+		}
+		output.flush();
+	}
+
+	/**
+	 * Check whether the geometry element of the entity did not have any
+	 * content, such as a self-closing element, so that there is nothing to
+	 * lose when writing the entity without it.
+	 */
+	private static boolean isEmpty(EntityFile entity)
+	{
+		byte[] wkb = entity.getWkb();
+		return wkb != null && wkb.length == 0;
+	}
+
+	/**
+	 * Check that the geometry element starting at the specified position is
+	 * followed by nothing but the end of the entity element and whitespace.
+	 * Geometry content is base64, so it cannot contain a '<' character.
+	 */
+	private static boolean isGeometryAtEnd(ByteBuffer data, int start)
+	{
+		int limit = data.limit();
+		int pos = start + 1;
+		while (pos < limit && data.get(pos) != '<') {
+			pos++;
+		}
+		if (!matches(data, pos, GEOMETRY_END)) {
+			return false;
+		}
+		pos = skipWhitespace(data, pos + GEOMETRY_END.length);
+		if (!matches(data, pos, ENTITY_END)) {
+			return false;
+		}
+		pos = skipWhitespace(data, pos + ENTITY_END.length);
+		return pos == limit;
+	}
+
+	private static boolean matches(ByteBuffer data, int pos, byte[] bytes)
+	{
+		if (data.limit() - pos < bytes.length) {
+			return false;
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			if (data.get(pos + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int skipWhitespace(ByteBuffer data, int pos)
+	{
+		int limit = data.limit();
+		while (pos < limit) {
+			byte b = data.get(pos);
+			if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+}
@@ -0,0 +1,450 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.io.ByteOrderValues;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBWriter;
+import org.locationtech.jts.precision.GeometryPrecisionReducer;
+
+import de.topobyte.simplemapfile.core.AtomicFileBatch;
+import de.topobyte.simplemapfile.core.EntityFile;
+import de.topobyte.simplemapfile.core.TwkbWriter;
+import de.topobyte.simplemapfile.core.WkbScanner;
+import de.topobyte.simplemapfile.core.WriteMode;
+
+/**
+ * A writer for smx files that streams the XML directly to the output without
+ * building a DOM. The output is byte-identical to what the JDK's XML
+ * transformer produces for the smx document with an indentation of 8 spaces.
+ * 
+ * When writing to a file whose name ends with '.gz', the output gets gzip
+ * compressed.
+ * 
+ * The WKB encoding can be configured with respect to the output dimension, the
+ * byte order and the precision of coordinates. By default, geometries are
+ * written in 2D, in big endian byte order and with their coordinates
+ * unchanged.
+ * 
+ * Alternatively, geometries can be written as TWKB (Tiny WKB), which stores
+ * coordinates as delta-coded varints at a fixed number of decimal places and
+ * is considerably smaller than WKB.
+ * 
+ * Entities that still hold the raw WKB they have been read with (see
+ * {@link ReadMode#LAZY_GEOMETRY}) get their WKB copied to the output without decoding
+ * it, as long as the configuration does not require a different encoding.
+ * 
+ * Instances of this class are thread-safe once they have been configured.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class SmxWriter
+{
+
+	private static int INDENT = 8;
+	private static int LINE_WIDTH = 76;
+
+	static String INDENT_STRING;
+	static {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < INDENT; i++) {
+			builder.append(" ");
+		}
+		INDENT_STRING = builder.toString();
+	}
+
+	private static String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+	private String newLine = System.getProperty("line.separator");
+
+	private int outputDimension = 2;
+	private int byteOrder = ByteOrderValues.BIG_ENDIAN;
+	private PrecisionModel precisionModel = null;
+
+	private GeometryType geometryType = GeometryType.WKB_BASE64;
+	private int twkbPrecision = 7;
+	private int twkbZPrecision = 3;
+
+	private WriteMode writeMode = WriteMode.DIRECT;
+
+	public GeometryType getGeometryType()
+	{
+		return geometryType;
+	}
+
+	/**
+	 * @param geometryType
+	 *            either {@link GeometryType#WKB_BASE64} (the default) or
+	 *            {@link GeometryType#TWKB_BASE64}.
+	 */
+	public void setGeometryType(GeometryType geometryType)
+	{
+		if (geometryType != GeometryType.WKB_BASE64
+				&& geometryType != GeometryType.TWKB_BASE64) {
+			throw new IllegalArgumentException(
+					"unsupported geometry type: " + geometryType);
+		}
+		this.geometryType = geometryType;
+	}
+
+	public int getTwkbPrecision()
+	{
+		return twkbPrecision;
+	}
+
+	/**
+	 * @param twkbPrecision
+	 *            the number of decimal places of x and y to keep when writing
+	 *            TWKB, between -8 and 7. The default of 7 corresponds to about
+	 *            1 cm for geographic coordinates. Geometries get reduced to
+	 *            this precision using {@link GeometryPrecisionReducer} before
+	 *            encoding.
+	 */
+	public void setTwkbPrecision(int twkbPrecision)
+	{
+		if (twkbPrecision < TwkbWriter.MIN_PRECISION
+				|| twkbPrecision > TwkbWriter.MAX_PRECISION) {
+			throw new IllegalArgumentException(
+					"precision out of range: " + twkbPrecision);
+		}
+		this.twkbPrecision = twkbPrecision;
+	}
+
+	public int getTwkbZPrecision()
+	{
+		return twkbZPrecision;
+	}
+
+	/**
+	 * @param twkbZPrecision
+	 *            the number of decimal places of z to keep when writing TWKB
+	 *            with an output dimension of 3, between 0 and 7.
+	 */
+	public void setTwkbZPrecision(int twkbZPrecision)
+	{
+		if (twkbZPrecision < 0 || twkbZPrecision > TwkbWriter.MAX_PRECISION) {
+			throw new IllegalArgumentException(
+					"z precision out of range: " + twkbZPrecision);
+		}
+		this.twkbZPrecision = twkbZPrecision;
+	}
+
+	public int getOutputDimension()
+	{
+		return outputDimension;
+	}
+
+	/**
+	 * @param outputDimension
+	 *            2 to drop Z ordinates or 3 to keep them for geometries that
+	 *            have them.
+	 */
+	public void setOutputDimension(int outputDimension)
+	{
+		if (outputDimension != 2 && outputDimension != 3) {
+			throw new IllegalArgumentException(
+					"output dimension must be 2 or 3: " + outputDimension);
+		}
+		this.outputDimension = outputDimension;
+	}
+
+	public int getByteOrder()
+	{
+		return byteOrder;
+	}
+
+	/**
+	 * @param byteOrder
+	 *            either {@link ByteOrderValues#BIG_ENDIAN} or
+	 *            {@link ByteOrderValues#LITTLE_ENDIAN}.
+	 */
+	public void setByteOrder(int byteOrder)
+	{
+		if (byteOrder != ByteOrderValues.BIG_ENDIAN
+				&& byteOrder != ByteOrderValues.LITTLE_ENDIAN) {
+			throw new IllegalArgumentException(
+					"invalid byte order: " + byteOrder);
+		}
+		this.byteOrder = byteOrder;
+	}
+
+	public PrecisionModel getPrecisionModel()
+	{
+		return precisionModel;
+	}
+
+	/**
+	 * @param precisionModel
+	 *            a precision model to snap coordinates to before encoding or
+	 *            null to write coordinates unchanged. Reduction is performed
+	 *            using {@link GeometryPrecisionReducer}, which keeps polygonal
+	 *            geometries valid.
+	 */
+	public void setPrecisionModel(PrecisionModel precisionModel)
+	{
+		this.precisionModel = precisionModel;
+	}
+
+	public WriteMode getWriteMode()
+	{
+		return writeMode;
+	}
+
+	/**
+	 * Set how files are written by the methods that take a file or file name.
+	 * The default is {@link WriteMode#DIRECT}.
+	 */
+	public void setWriteMode(WriteMode writeMode)
+	{
+		this.writeMode = writeMode;
+	}
+
+	public void write(EntityFile entityFile, String filename) throws IOException
+	{
+		write(entityFile, Paths.get(filename));
+	}
+
+	public void write(EntityFile entityFile, Path file) throws IOException
+	{
+		writeMode.write(file,
+				output -> writeFile(entityFile, output, file.toString()));
+	}
+
+	public void write(EntityFile entityFile, File file) throws IOException
+	{
+		if (writeMode != WriteMode.DIRECT) {
+			write(entityFile, file.toPath());
+			return;
+		}
+		try (OutputStream output = new FileOutputStream(file)) {
+			writeFile(entityFile, output, file.getName());
+		}
+	}
+
+	/**
+	 * Write the entity to the specified file as part of the batch. The file
+	 * appears at its destination once the batch gets committed. The configured
+	 * write mode does not apply.
+	 */
+	public void write(EntityFile entityFile, Path file, AtomicFileBatch batch)
+			throws IOException
+	{
+		batch.write(file,
+				output -> writeFile(entityFile, output, file.toString()));
+	}
+
+	private void writeFile(EntityFile entityFile, OutputStream output,
+			String filename) throws IOException
+	{
+		try (OutputStream out = Compression.compress(output, filename)) {
+			write(entityFile, out);
+		}
+	}
+
+	/**
+	 * Write the entity to the specified stream. The stream gets flushed but
+	 * not closed. Entities without a geometry, or with WKB that cannot be
+	 * decoded, are written without a geometry element.
+	 */
+	public void write(EntityFile entityFile, OutputStream output)
+			throws IOException
+	{
+		Writer writer = new BufferedWriter(
+				new OutputStreamWriter(output, StandardCharsets.UTF_8));
+
+		writeHead(writer, entityFile.getTags());
+
+		// add geometry, if there is one
+
+		byte[] wkb = entityFile.getWkb();
+		boolean verbatim = wkb != null && isVerbatim(wkb);
+		Geometry geometry = verbatim ? null : entityFile.getGeometry();
+		if (verbatim || geometry != null) {
+			writer.write(INDENT_STRING);
+			if (geometryType == GeometryType.TWKB_BASE64) {
+				writer.write("<geometry type=\"twkb-base64\">");
+			} else {
+				writer.write("<geometry type=\"wkb-base64\">");
+			}
+
+			writer.write(newLine);
+			Base64LineEncoder encoder = new Base64LineEncoder(writer,
+					LINE_WIDTH, newLine);
+			if (verbatim) {
+				encoder.write(wkb, wkb.length);
+				encoder.finish();
+			} else {
+				writeGeometry(geometry, encoder);
+			}
+			writer.write(INDENT_STRING);
+
+			writer.write("</geometry>");
+			writer.write(newLine);
+		}
+		writer.write("</entity>");
+		writer.write(newLine);
+
+		writer.flush();
+	}
+
+	/**
+	 * @return whether writing the entity produces a geometry element.
+	 */
+	boolean writesGeometry(EntityFile entityFile)
+	{
+		byte[] wkb = entityFile.getWkb();
+		return wkb != null && isVerbatim(wkb)
+				|| entityFile.getGeometry() != null;
+	}
+
+	/**
+	 * Check whether raw WKB can be written as it is, because encoding its
+	 * geometry again with the current configuration would not change it in a
+	 * meaningful way.
+	 */
+	private boolean isVerbatim(byte[] wkb)
+	{
+		if (geometryType != GeometryType.WKB_BASE64 || precisionModel != null) {
+			return false;
+		}
+		try {
+			return WkbScanner.isPlainType(wkb)
+					&& WkbScanner.getByteOrder(wkb) == byteOrder
+					&& WkbScanner.getDimension(wkb) <= outputDimension;
+		} catch (ParseException e) {
+			return false;
+		}
+	}
+
+	private void writeGeometry(Geometry geom, Base64LineEncoder encoder)
+			throws IOException
+	{
+		if (precisionModel != null) {
+			geom = GeometryPrecisionReducer.reduce(geom, precisionModel);
+		}
+		if (geometryType == GeometryType.TWKB_BASE64) {
+			// round the way TWKB does, but without breaking polygons
+			geom = GeometryPrecisionReducer.reduce(geom,
+					new PrecisionModel(Math.pow(10, twkbPrecision)));
+			TwkbWriter twkbWriter = new TwkbWriter(twkbPrecision,
+					outputDimension, twkbZPrecision);
+			twkbWriter.write(geom, encoder);
+		} else {
+			WKBWriter wkbWriter = new WKBWriter(outputDimension, byteOrder);
+			wkbWriter.write(geom, encoder);
+		}
+		encoder.finish();
+	}
+
+	/**
+	 * Write the XML declaration, the start tag of the entity element and the
+	 * tags.
+	 */
+	void writeHead(Writer writer, Map<String, String> tags) throws IOException
+	{
+		writer.write(DECLARATION);
+		writer.write("<entity>");
+		writer.write(newLine);
+
+		for (Map.Entry<String, String> tag : tags.entrySet()) {
+			writer.write(INDENT_STRING);
+			writer.write("<tag k=\"");
+			writeEscaped(writer, tag.getKey());
+			writer.write("\" v=\"");
+			writeEscaped(writer, tag.getValue());
+			writer.write("\"/>");
+			writer.write(newLine);
+		}
+	}
+
+	/**
+	 * Write the entity to the specified file on the given executor. Exceptions
+	 * thrown while writing complete the returned future exceptionally, wrapped
+	 * in a {@link CompletionException}.
+	 */
+	public CompletableFuture<Void> writeAsync(EntityFile entityFile, Path file,
+			Executor executor)
+	{
+		return CompletableFuture.runAsync(() -> {
+			try {
+				write(entityFile, file);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+
+	private static void writeEscaped(Writer writer, String value)
+			throws IOException
+	{
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '&':
+				writer.write("&amp;");
+				break;
+			case '<':
+				writer.write("&lt;");
+				break;
+			case '>':
+				writer.write("&gt;");
+				break;
+			case '"':
+				writer.write("&quot;");
+				break;
+			default:
+				if (c < 0x20) {
+					writeReference(writer, c);
+				} else if (Character.isHighSurrogate(c) && i + 1 < length
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					writeReference(writer, value.codePointAt(i));
+					i++;
+				} else {
+					writer.write(c);
+				}
+			}
+		}
+	}
+
+	private static void writeReference(Writer writer, int codePoint)
+			throws IOException
+	{
+		writer.write("&#");
+		writer.write(Integer.toString(codePoint));
+		writer.write(';');
+	}
+
+}
@@ -0,0 +1,36 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+/**
+ * Thrown by {@link SmxFastParser} when it encounters input that it does not
+ * handle itself and that needs to be parsed by a full XML parser instead.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+class UnsupportedSyntaxException extends Exception
+{
+
+	private static final long serialVersionUID = 1L;
+
+	public UnsupportedSyntaxException(String message)
+	{
+		super(message, null, false, false);
+	}
+
+}
@@ -0,0 +1,171 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.xml.sax.SAXException;
+
+import de.topobyte.simplemapfile.core.EntityFile;
+
+/**
+ * Checks that {@link SmxFastReader} produces the same entities as the SAX
+ * based {@link SmxReader}, both for files that the fast parser handles itself
+ * and for files that it has to pass on to the SAX parser.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class TestFastReader
+{
+
+	private static final String[] FAST = new String[] { "plain.smx",
+			"no-declaration.smx", "wrapped.smx", "references.smx",
+			"normalization.smx", "empty-geometry.smx", "no-geometry.smx" };
+
+	private static final String[] FALLBACK = new String[] { "comment.smx",
+			"comment-in-geometry.smx", "cdata.smx", "text-reference.smx",
+			"doctype.smx", "carriage-return.smx", "latin1.smx",
+			"processing-instruction.smx" };
+
+	private static final ReadMode[] MODES = new ReadMode[] { ReadMode.FULL,
+			ReadMode.LAZY_GEOMETRY, ReadMode.TAGS_ONLY };
+
+	@Test
+	public void testFastParser() throws IOException, SAXException
+	{
+		for (String name : FAST) {
+			try {
+				parse(load(name));
+			} catch (UnsupportedSyntaxException e) {
+				fail(name + ": " + e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testFallback() throws IOException, SAXException
+	{
+		for (String name : FALLBACK) {
+			try {
+				parse(load(name));
+				fail(name + ": parsed without falling back");
+			} catch (UnsupportedSyntaxException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testSameEntities()
+			throws IOException, ParserConfigurationException, SAXException
+	{
+		SmxReader reader = new SmxReader();
+		SmxFastReader fastReader = new SmxFastReader(reader);
+		for (String[] names : new String[][] { FAST, FALLBACK }) {
+			for (String name : names) {
+				byte[] data = load(name);
+				for (ReadMode mode : MODES) {
+					EntityFile expected = reader.read(data, mode);
+					EntityFile actual = fastReader.read(data, mode);
+					compare(name + " " + mode, expected, actual);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testValues()
+			throws IOException, ParserConfigurationException, SAXException
+	{
+		SmxFastReader reader = new SmxFastReader();
+
+		EntityFile references = reader.read(load("references.smx"));
+		assertEquals("<b> & \"quoted\" 'single'",
+				references.getTags().get("markup"));
+		assertEquals("caf\u00e9 \u00e9t\u00e9 \ud83d\ude00 &amp;",
+				references.getTags().get("key"));
+		assertEquals("say \"hi\" & it's ok", references.getTags().get("mixed"));
+
+		EntityFile normalization = reader.read(load("normalization.smx"));
+		assertEquals("a b  c", normalization.getTags().get("tabs"));
+		assertEquals("line 1 line 2 ", normalization.getTags().get("newlines"));
+		assertEquals("keep\ttab\nand newline\r",
+				normalization.getTags().get("escaped"));
+		assertEquals("", normalization.getTags().get("empty"));
+
+		EntityFile doctype = reader.read(load("doctype.smx"));
+		assertEquals("Berlin", doctype.getTags().get("name"));
+		EntityFile latin1 = reader.read(load("latin1.smx"));
+		assertEquals("K\u00f6ln", latin1.getTags().get("name"));
+		EntityFile comment = reader.read(load("comment.smx"));
+		assertEquals(1, comment.getTags().size());
+
+		for (String name : new String[] { "plain.smx", "wrapped.smx",
+				"cdata.smx", "comment-in-geometry.smx",
+				"text-reference.smx" }) {
+			assertNotNull(name, reader.read(load(name)).getGeometry());
+		}
+	}
+
+	private static void parse(byte[] data)
+			throws SAXException, UnsupportedSyntaxException
+	{
+		SmxFileHandler handler = new SmxFileHandler();
+		try {
+			new SmxFastParser(ByteBuffer.wrap(data), handler).parse();
+		} catch (ParsingFinishedException e) {
+			// handler is done before reaching the end of the document
+		}
+	}
+
+	private static void compare(String message, EntityFile expected,
+			EntityFile actual)
+	{
+		assertEquals(message, expected.getTags(), actual.getTags());
+		assertArrayEquals(message, expected.getWkb(), actual.getWkb());
+		Geometry geometry = expected.getGeometry();
+		if (geometry == null) {
+			assertNull(message, actual.getGeometry());
+		} else {
+			assertTrue(message, geometry.equalsExact(actual.getGeometry()));
+		}
+	}
+
+	private byte[] load(String name) throws IOException
+	{
+		try (InputStream input = getClass()
+				.getResourceAsStream("/fast/" + name)) {
+			assertNotNull(name, input);
+			return Buffers.readFully(input);
+		}
+	}
+
+}
@@ -0,0 +1,257 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of simple-mapfile.
+//
+// simple-mapfile is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// simple-mapfile is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with simple-mapfile. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.simplemapfile.xml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.WKBWriter;
+import org.xml.sax.SAXException;
+
+import de.topobyte.simplemapfile.binary.SmxBinaryWriter;
+import de.topobyte.simplemapfile.core.EntityFile;
+
+/**
+ * Checks that editing tags with {@link SmxTagRewriter} produces the same bytes
+ * as writing the edited entity with {@link SmxWriter}, both when editing in
+ * place and when falling back to reading and writing the whole entity.
+ * 
+ * @author Sebastian Kuerten (sebastian@topobyte.de)
+ */
+public class TestTagRewriter
+{
+
+	private static final Consumer<Map<String, String>> EDIT = tags -> {
+		tags.put("name", "Neue Stra\u00dfe");
+		tags.remove("old");
+		tags.put("note", "<b> & \"quoted\"\ttab");
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SmxWriter writer = new SmxWriter();
+
+	@Test
+	public void testInPlace()
+			throws IOException, ParserConfigurationException, SAXException
+	{
+		EntityFile entity = entity();
+		byte[] input = write(entity);
+
+		// the in-place path must not read the entity completely
+		SmxTagRewriter rewriter = new SmxTagRewriter(new FailingReader(),
+				writer);
+		byte[] output = rewrite(rewriter, input);
+		assertArrayEquals(expected(entity), output);
+	}
+
+	@Test
+	public void testWithoutGeometry()
+			throws IOException, ParserConfigurationException, SAXException
+	{
+		EntityFile entity = new EntityFile();
+		entity.addTag("name", "Berlin");
+		entity.addTag("old", "x");
+		byte[] input = write(entity);
+		assertArrayEquals(expected(entity), rewrite(input));
+	}
+
+	@Test
+	public void testTrailingComment()
+			throws IOException, ParserConfigurationException, SAXException
+	{
+		EntityFile entity = entity();
+		String xml = new String(write(entity), StandardCharsets.UTF_8);
+		byte[] expected = expected(entity);
+
+		String[] inputs = new String[] { xml + "<!-- trailing -->\n",
+				xml.replace("</geometry>", "</geometry>\n<!-- comment -->"),
+				xml.replace("</entity>", "</entity>\n<?pi?>") };
+		for (String input : inputs) {
+			assertArrayEquals(input, expected,
+					rewrite(input.getBytes(StandardCharsets.UTF_8)));
+		}
+	}
+
+	@Test
+	public void testSelfClosingGeometry()
+			throws IOException, ParserConfigurationException, SAXException
+	{
+		EntityFile entity = new EntityFile();
+		entity.addTag("name", "Berlin");
+		entity.addTag("old", "x");
+		String input = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<entity>\n  <tag k=\"name\" v=\"Berlin\"/>\n"
+				+ "  <tag k=\"old\" v=\"x\"/>\n"
+				+ "  <geometry type=\"wkb-base64\"/>\n</entity>\n";
+		assertArrayEquals(expected(entity),
+				rewrite(input.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void testUnreadableGeometry()
+			throws ParserConfigurationException, SAXException
+	{
+		String input = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<entity>\n  <tag k=\"name\" v=\"Berlin\"/>\n"
+				+ "  <geometry type=\"wkb-base64\">AAAA</geometry>\n"
+				+ "  <!-- the geometry is not at the end -->\n</entity>\n";
+		try {
+			rewrite(input.getBytes(StandardCharsets.UTF_8));
+			fail("dropped the geometry");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testGzip()
+			throws IOException, ParserConfigurationException, SAXException
+	{
+		EntityFile entity = entity();
+		byte[] input = write(entity);
+		byte[] expected = expected(entity);
+		assertArrayEquals(expected, rewrite(gzip(input)));
+
+		SmxTagRewriter rewriter = new SmxTagRewriter();
+		Path plain = folder.getRoot().toPath().resolve("entity.smx");
+		Path compressed = folder.getRoot().toPath().resolve("entity.smx.gz");
+		Files.write(plain, input);
+		rewriter.rewrite(plain, compressed, EDIT);
+		assertArrayEquals(expected, gunzip(Files.readAllBytes(compressed)));
+
+		Files.write(compressed, gzip(input));
+		rewriter.rewrite(compressed, EDIT);
+		assertArrayEquals(expected, gunzip(Files.readAllBytes(compressed)));
+	}
+
+	@Test
+	public void testBinary()
+			throws IOException, ParserConfigurationException, SAXException
+	{
+		SmxBinaryWriter binaryWriter = new SmxBinaryWriter();
+		EntityFile entity = entity();
+		ByteArrayOutputStream input = new ByteArrayOutputStream();
+		binaryWriter.write(entity, input);
+
+		EDIT.accept(entity.getTags());
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		binaryWriter.write(entity, expected);
+
+		SmxTagRewriter rewriter = new SmxTagRewriter(new FailingReader(),
+				writer);
+		assertArrayEquals(expected.toByteArray(),
+				rewrite(rewriter, input.toByteArray()));
+		assertArrayEquals(expected.toByteArray(),
+				rewrite(rewriter, gzip(input.toByteArray())));
+	}
+
+	private static EntityFile entity()
+	{
+		GeometryFactory factory = new GeometryFactory();
+		Coordinate[] ring = new Coordinate[] { new Coordinate(13.1, 52.3),
+				new Coordinate(13.8, 52.3), new Coordinate(13.8, 52.7),
+				new Coordinate(13.1, 52.7), new Coordinate(13.1, 52.3) };
+		EntityFile entity = new EntityFile();
+		entity.addTag("name", "Berlin");
+		entity.addTag("old", "x");
+		entity.addTag("population", "3500000");
+		entity.setWkb(new WKBWriter().write(factory.createPolygon(ring)));
+		return entity;
+	}
+
+	/**
+	 * Apply the edit to the entity and write it.
+	 */
+	private byte[] expected(EntityFile entity) throws IOException
+	{
+		EDIT.accept(entity.getTags());
+		return write(entity);
+	}
+
+	private byte[] write(EntityFile entity) throws IOException
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		writer.write(entity, output);
+		return output.toByteArray();
+	}
+
+	private byte[] rewrite(byte[] input)
+			throws IOException, ParserConfigurationException, SAXException
+	{
+		return rewrite(new SmxTagRewriter(new SmxReader(), writer), input);
+	}
+
+	private static byte[] rewrite(SmxTagRewriter rewriter, byte[] input)
+			throws IOException, ParserConfigurationException, SAXException
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		rewriter.rewrite(ByteBuffer.wrap(input), output, EDIT);
+		return output.toByteArray();
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try (OutputStream gzip = new GZIPOutputStream(output)) {
+			gzip.write(data);
+		}
+		return output.toByteArray();
+	}
+
+	private static byte[] gunzip(byte[] data) throws IOException
+	{
+		try (InputStream input = new GZIPInputStream(
+				new ByteBufferInputStream(ByteBuffer.wrap(data)))) {
+			return Buffers.readFully(input);
+		}
+	}
+
+	private static class FailingReader extends SmxReader
+	{
+
+		@Override
+		public EntityFile read(ByteBuffer data, ReadMode mode)
+		{
+			throw new AssertionError("entity read completely");
+		}
+
+	}
+
+}